@@ -0,0 +1,134 @@
+import java.io.File;
+import java.io.IOException;
+
+import bench.Workload;
+
+
+/**
+ * Implements the benchmark operations on a synthetic dataset.
+ * The models and the TAN phases are prepared once, so that each operation
+ * only measures the step it names.
+ */
+public class BenchmarkWorkload implements Workload {
+
+    private final int rows, attributes, values, labels;
+    private final long seed;
+    private final ArffDataSet dataset;
+    private final CountTable counts;
+    private final BitmapIndex index;
+    private final TAN tan;
+    private final TrainedModel naiveBayesModel, tanModel;
+    private final AODE aode;
+    private final KDB kdb;
+    private final int[][] cols;
+    private final int[] row;
+    private final int[] aodeIndex;  // scratch of AODE.predict
+    private final double[] posterior;
+    private int[] predictions= new int[0];
+    private double[] posteriors= new double[0];
+
+    public BenchmarkWorkload(int rows, int attributes, int values, int labels, long seed) {
+        this.rows= rows;
+        this.attributes= attributes;
+        this.values= values;
+        this.labels= labels;
+        this.seed= seed;
+        dataset= SyntheticArff.generate(rows, attributes, values, labels, seed);
+        counts= CountTable.count(dataset, true, 1);
+        index= BitmapIndex.build(dataset);
+
+        NaiveBayes nb= new NaiveBayes();
+        nb.train(dataset);
+        naiveBayesModel= nb.toModel();
+        tan= new TAN();
+        tan.train(dataset);
+        tanModel= tan.toModel();
+        aode= new AODE();
+        aode.train(tan);
+        kdb= new KDB();
+        kdb.train(dataset);
+
+        cols= new int[attributes][];
+        for (int a=0;a<attributes;a++) { cols[a]= dataset.getColumn(a); }
+        row= new int[attributes+1];
+        aodeIndex= new int[attributes];
+        posterior= new double[labels];
+    }
+
+    public String writeArff() throws IOException {
+        File file= File.createTempFile("synthetic", ".arff");
+        file.deleteOnExit();
+        SyntheticArff.write(file.getPath(), rows, attributes, values, labels, seed);
+        return file.getPath();
+    }
+
+    public Object parse(String file) throws IOException { return new ArffParser().createSets(file); }
+
+    public Object parseMapped(String file, int parallelism) throws IOException { return MappedArffLoader.load(file, parallelism); }
+
+    public Object trainNaiveBayes() {
+        NaiveBayes nb= new NaiveBayes();
+        nb.train(dataset);
+        return nb;
+    }
+
+    public Object trainTAN() {
+        TAN model= new TAN();
+        model.train(dataset);
+        return model;
+    }
+
+    public Object countPairs() { return CountTable.count(dataset, true, 1); }
+
+    public Object countPairsBitmap() { return index.counts(null, true, 1); }
+
+    public Object mutualInfo() {
+        tan.getMutualInfo();
+        return tan.getWeightMatrix();
+    }
+
+    public Object spanningTree() { return new PrimMaxST().parents(tan.getWeightMatrix()); }
+
+    public Object createCPT() {
+        tan.createCPT();
+        return tan;
+    }
+
+    public int rows() { return rows; }
+
+    public int classifyNaiveBayes(int r) { return naiveBayesModel.predict(fill(r), posterior); }
+
+    public int classifyTAN(int r) { return tanModel.predict(fill(r), posterior); }
+
+    public int classifyAODE(int r) { return aode.predict(fill(r), posterior, aodeIndex); }
+
+    public int classifyKDB(int r) { return kdb.predict(fill(r), posterior); }
+
+    public int classifyBlockNaiveBayes(int from, int count, boolean vector) { return classifyBlock(naiveBayesModel, from, count, vector); }
+
+    public int classifyBlockTAN(int from, int count, boolean vector) { return classifyBlock(tanModel, from, count, vector); }
+
+    public boolean isVectorized() { return naiveBayesModel.kernel().isVectorized(); }
+
+    /** classifies a block of instances and returns the prediction of the first one */
+    private int classifyBlock(TrainedModel model, int from, int count, boolean vector) {
+        if (predictions.length<count) {
+            predictions= new int[count];
+            posteriors= new double[count*labels];
+        }
+        InferenceKernel kernel= model.kernel();
+        if (vector) {
+            kernel.predict(cols, from, from+count, predictions, posteriors);
+        } else {
+            kernel.predictScalar(cols, null, from, from+count, predictions, posteriors);
+        }
+        return predictions[0];
+    }
+
+    /** copies instance r into the row buffer */
+    private int[] fill(int r) {
+        for (int a=0;a<attributes;a++) { row[a]= cols[a][r]; }
+        return row;
+    }
+
+}
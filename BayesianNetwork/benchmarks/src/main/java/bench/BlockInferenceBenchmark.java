@@ -0,0 +1,98 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Classification throughput over blocks of BLOCK instances, in instances per second:
+ * the per-instance path, the scalar block loops and the Vector API block backend.
+ * The fork adds the jdk.incubator.vector module; the vector benchmarks fail
+ * if the backend is still unavailable, rather than measuring the scalar loops twice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class BlockInferenceBenchmark {
+
+    static final int BLOCK= 1024;
+
+    @Param({"10240"})
+    int rows;
+
+    @Param({"10", "100"})
+    int attributes;
+
+    @Param({"2", "8"})
+    int values;
+
+    @Param({"2", "5"})
+    int labels;
+
+    private Workload workload;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        workload= Workload.create(rows, attributes, values, labels, 42L);
+    }
+
+    /** returns the first instance of the next block */
+    private int nextBlock() {
+        next= next+2*BLOCK>rows ? 0 : next+BLOCK;
+        return next;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int naiveBayesRows() {
+        int from= nextBlock(), sum= 0;
+        for (int r=from;r<from+BLOCK;r++) { sum+= workload.classifyNaiveBayes(r); }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int naiveBayesScalar() { return workload.classifyBlockNaiveBayes(nextBlock(), BLOCK, false); }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int naiveBayesVector() { return workload.classifyBlockNaiveBayes(nextBlock(), BLOCK, vector()); }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int tanRows() {
+        int from= nextBlock(), sum= 0;
+        for (int r=from;r<from+BLOCK;r++) { sum+= workload.classifyTAN(r); }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int tanScalar() { return workload.classifyBlockTAN(nextBlock(), BLOCK, false); }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int tanVector() { return workload.classifyBlockTAN(nextBlock(), BLOCK, vector()); }
+
+    private boolean vector() {
+        if (!workload.isVectorized()) { throw new IllegalStateException("the Vector API backend is not available"); }
+        return true;
+    }
+
+}
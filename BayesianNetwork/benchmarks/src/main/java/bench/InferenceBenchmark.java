@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Per-instance classification throughput of trained NaiveBayes, TAN, AODE and KDB models.
+ * Each operation classifies the next instance of the dataset.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InferenceBenchmark {
+
+    @Param({"10000"})
+    int rows;
+
+    @Param({"10", "100"})
+    int attributes;
+
+    @Param({"2", "8"})
+    int values;
+
+    @Param({"2", "5"})
+    int labels;
+
+    private Workload workload;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        workload= Workload.create(rows, attributes, values, labels, 42L);
+    }
+
+    @Benchmark
+    public int naiveBayes() {
+        next= next+1==rows ? 0 : next+1;
+        return workload.classifyNaiveBayes(next);
+    }
+
+    @Benchmark
+    public int tan() {
+        next= next+1==rows ? 0 : next+1;
+        return workload.classifyTAN(next);
+    }
+
+    @Benchmark
+    public int aode() {
+        next= next+1==rows ? 0 : next+1;
+        return workload.classifyAODE(next);
+    }
+
+    @Benchmark
+    public int kdb() {
+        next= next+1==rows ? 0 : next+1;
+        return workload.classifyKDB(next);
+    }
+
+}
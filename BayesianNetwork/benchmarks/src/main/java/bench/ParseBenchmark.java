@@ -0,0 +1,65 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time to parse a synthetic ARFF file with ArffParser.createSets, and to
+ * load it with MappedArffLoader on several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"10000", "100000"})
+    int rows;
+
+    @Param({"10", "50"})
+    int attributes;
+
+    @Param({"4"})
+    int values;
+
+    @Param({"2"})
+    int labels;
+
+    @Param({"0"})
+    int threads;  // threads of MappedArffLoader, 0 for one per available processor
+
+    private Workload workload;
+    private String file;
+
+    @Setup
+    public void setup() throws Exception {
+        workload= Workload.create(rows, attributes, values, labels, 42L);
+        file= workload.writeArff();
+    }
+
+    @Benchmark
+    public Object createSets() throws IOException {
+        return workload.parse(file);
+    }
+
+    @Benchmark
+    public Object mappedLoad() throws IOException {
+        return workload.parseMapped(file, threads>0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+}
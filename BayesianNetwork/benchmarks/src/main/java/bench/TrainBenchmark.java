@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Training time of NaiveBayes and TAN, with TAN broken down into its phases:
+ * counting, mutual information, maximal spanning tree and CPT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrainBenchmark {
+
+    @Param({"10000", "100000"})
+    int rows;
+
+    @Param({"10", "50"})
+    int attributes;
+
+    @Param({"2", "8"})
+    int values;
+
+    @Param({"2", "5"})
+    int labels;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload= Workload.create(rows, attributes, values, labels, 42L);
+    }
+
+    @Benchmark
+    public Object naiveBayes() { return workload.trainNaiveBayes(); }
+
+    @Benchmark
+    public Object tan() { return workload.trainTAN(); }
+
+    @Benchmark
+    public Object tanCounting() { return workload.countPairs(); }
+
+    @Benchmark
+    public Object tanCountingBitmap() { return workload.countPairsBitmap(); }
+
+    @Benchmark
+    public Object tanMutualInfo() { return workload.mutualInfo(); }
+
+    @Benchmark
+    public Object tanSpanningTree() { return workload.spanningTree(); }
+
+    @Benchmark
+    public Object tanCPT() { return workload.createCPT(); }
+
+}
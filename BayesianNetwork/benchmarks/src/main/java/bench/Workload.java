@@ -0,0 +1,81 @@
+package bench;
+
+import java.io.IOException;
+
+
+/**
+ * The operations measured by the benchmarks, on one synthetic dataset.
+ * JMH does not accept benchmark classes in the default package, where the
+ * classifiers live, and classes of a named package cannot refer to the
+ * default package. The benchmarks therefore call the classifiers through
+ * this interface, implemented by BenchmarkWorkload in the default package.
+ */
+public interface Workload {
+
+    /**
+     * create the workload for a synthetic dataset (see SyntheticArff)
+     */
+    static Workload create(int rows, int attributes, int values, int labels, long seed) throws ReflectiveOperationException {
+        return (Workload) Class.forName("BenchmarkWorkload")
+            .getConstructor(int.class, int.class, int.class, int.class, long.class)
+            .newInstance(rows, attributes, values, labels, seed);
+    }
+
+    /** write the dataset as a temporary ARFF file and return its path */
+    String writeArff() throws IOException;
+
+    /** parse an ARFF file with ArffParser.createSets */
+    Object parse(String file) throws IOException;
+
+    /** load an ARFF file with MappedArffLoader.load on parallelism threads */
+    Object parseMapped(String file, int parallelism) throws IOException;
+
+    /** NaiveBayes.train on the dataset */
+    Object trainNaiveBayes();
+
+    /** TAN.train on the dataset */
+    Object trainTAN();
+
+    /** TAN phase: counting of the labels, attributes and attribute pairs */
+    Object countPairs();
+
+    /** TAN phase: the same counts as popcounts over a bitmap index of the dataset, built once */
+    Object countPairsBitmap();
+
+    /** TAN phase: conditional mutual information matrix */
+    Object mutualInfo();
+
+    /** TAN phase: maximal spanning tree of the mutual information matrix */
+    Object spanningTree();
+
+    /** TAN phase: conditional probability tables */
+    Object createCPT();
+
+    /** number of instances */
+    int rows();
+
+    /** classify instance r of the dataset with the Naive Bayes model */
+    int classifyNaiveBayes(int r);
+
+    /** classify instance r of the dataset with the TAN model */
+    int classifyTAN(int r);
+
+    /** classify instance r of the dataset with the AODE model */
+    int classifyAODE(int r);
+
+    /** classify instance r of the dataset with the KDB model */
+    int classifyKDB(int r);
+
+    /**
+     * classify instances [from, from+count) of the dataset with the Naive Bayes kernel
+     * @param vector score with the Vector API backend if true, with the scalar loops if false
+     */
+    int classifyBlockNaiveBayes(int from, int count, boolean vector);
+
+    /** same as classifyBlockNaiveBayes, with the TAN kernel */
+    int classifyBlockTAN(int from, int count, boolean vector);
+
+    /** returns true if the kernels can score blocks with the Vector API */
+    boolean isVectorized();
+
+}
@@ -0,0 +1,330 @@
+/**
+ * AODE.java (with BayesianNetwork.java and CountTable.java)
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Averaged One-Dependence Estimators: every attribute value seen often enough acts
+ * in turn as the super-parent of all the other attributes, and the joint estimates
+ * of these one-dependence models are averaged:
+ * P(y, x) ~ sum_i P(y, x_i) * prod_{j!=i} P(x_j | y, x_i)
+ * over the attributes i whose value x_i occurs at least minFrequency times in the
+ * training set (Naive Bayes when there are none). Training only needs the counts
+ * N(Y), N(X_i, Y) and N(X_i, X_j, Y) that TAN gathers, so an AODE can be trained
+ * from a trained TAN (its CountTable and bins) without another pass over the data.
+ * The smoothed probabilities are turned into log tables once, with a row of
+ * log P(X_j | Y=l, X_i=v) over all the attribute values for each label and super-parent
+ * value: once the position of each value of an instance is known, scoring it takes
+ * O(d^2) lookups and additions, and O(d) exponentials per label. The block methods
+ * allocate nothing per instance, and blocks of instances can be scored in parallel.
+ */
+
+public class AODE {
+
+    static final int DEFAULT_MIN_FREQUENCY= 30;  // usual minimum count of a super-parent value
+
+    private ArffDataSet header;  // relation, labels and attributes of the training set
+    private int labelSize;  // number of class labels
+    private int[] attrSize;  // number of values of each attribute
+    private Discretizer discretizer;  // bins of the numeric attributes, null if there are none
+
+    private int minFrequency= DEFAULT_MIN_FREQUENCY;  // minimum count of a value to act as super-parent
+    private int bins= Discretizer.DEFAULT_BINS;  // number of bins of numeric attributes
+    private int parallelism= 1;  // number of threads used for counting and for scoring blocks
+    private Smoothing smoothing= Smoothing.LAPLACE;  // pseudo-counts added to the counts
+
+    private double[] logPrior;  // log P(Y=l), for the Naive Bayes fallback
+    private int[] valueOffset;  // start of attribute i in the tables indexed by attribute value
+    private boolean[] parent;  // whether value v of attribute i may be a super-parent, at valueOffset[i] + v
+    private double[] logJoint;  // log P(Y=l, X_i=v) at l*values + valueOffset[i] + v
+    private double[] logCond;  // log P(X_j=v | Y=l), for the Naive Bayes fallback, at l*values + valueOffset[j] + v
+    private int stride;  // length of a row of logPair: one entry per attribute value, and a 0 for missing values
+    private double[] logPair;  // log P(X_j=vj | Y=l, X_i=vi) at (l*values + valueOffset[i] + vi)*stride + valueOffset[j] + vj,
+                               // 0 for j==i and at the end of each row
+
+    /** constructor */
+    AODE() {}
+
+    /** set the minimum number of training instances with a value for it to act as super-parent */
+    public void setMinFrequency(int minFrequency) { this.minFrequency= Math.max(0, minFrequency); }
+
+    /** set the number of equal-frequency bins of numeric attributes */
+    public void setBins(int bins) { this.bins= Math.max(1, bins); }
+
+    /** set the number of threads used to count the training instances and to score blocks */
+    public void setParallelism(int parallelism) { this.parallelism= Math.max(1, parallelism); }
+
+    /** set the smoothing of the probabilities (Laplace by default), before training */
+    public void setSmoothing(Smoothing smoothing) { this.smoothing= smoothing; }
+
+    /** train the AODE model with dataset
+     * @param dataset
+     */
+    public void train(ArffDataSet dataset) {
+        long start= System.nanoTime();
+        Discretizer discretizer= dataset.hasNumeric() ? Discretizer.fit(dataset, bins) : null;
+        CountTable counts= discretizer==null ? CountTable.count(dataset, true, parallelism)
+            : CountTable.count(discretizer.apply(dataset), dataset.getLabelColumn(), dataset.size(), dataset.labels.size(),
+                               discretizer.arity(dataset), true, parallelism);
+        if (Metrics.ENABLED) { Metrics.get().recordPhase(Metrics.COUNTING, System.nanoTime()-start); }
+        train(dataset, counts, discretizer);
+    }
+
+    /** train the AODE model from the counts of a trained TAN, with its bins of the numeric attributes
+     * @param tan TAN trained on all the attributes
+     * @throws IllegalArgumentException if the TAN was trained on selected attributes
+     */
+    public void train(TAN tan) {
+        if (tan.getSelected()!=null) {
+            throw new IllegalArgumentException("the TAN was trained on selected attributes: AODE needs the counts of all of them");
+        }
+        train(tan.getHeader(), tan.getCounts(), tan.getDiscretizer());
+    }
+
+    /** train the AODE model from the counts of a dataset with nominal attributes only
+     * @param header labels and attributes of the dataset
+     * @param counts occurrence for each attribute and each attribute pair of each label
+     * @throws IllegalArgumentException if the counts do not match the attributes of header
+     */
+    public void train(ArffDataSet header, CountTable counts) {
+        train(header, counts, null);
+    }
+
+    /** train the AODE model from counts whose numeric attributes are discretized by discretizer (null if none) */
+    void train(ArffDataSet header, CountTable counts, Discretizer discretizer) {
+        if (!counts.hasPairs()) {
+            throw new IllegalArgumentException("AODE needs the pairwise counts");
+        }
+        int[] arity= discretizer==null ? header.getArity() : discretizer.arity(header);
+        if (!Arrays.equals(arity, counts.arity)) {
+            throw new IllegalArgumentException("the counts do not match the attributes of the header"
+                                               +" (discretized or selected counts: train from the TAN)");
+        }
+        long start= System.nanoTime();
+        this.header= header.copyHeader();
+        this.discretizer= discretizer;
+        labelSize= counts.labelSize;
+        attrSize= counts.arity;
+        int d= attrSize.length;
+        double total= counts.total(), delta= smoothing.label();
+
+        logPrior= new double[labelSize];
+        for (int l=0;l<labelSize;l++) { logPrior[l]= Math.log((counts.count(l)+delta)/(total+labelSize*delta)); }
+
+        valueOffset= new int[d];
+        int values= 0;
+        for (int i=0;i<d;i++) {
+            valueOffset[i]= values;
+            values+= attrSize[i];
+        }
+
+        // super-parents, joint P(Y, X_i) and Naive Bayes P(X_i | Y)
+        parent= new boolean[values];
+        logJoint= new double[labelSize*values];
+        logCond= new double[labelSize*values];
+        for (int i=0;i<d;i++) {
+            double alpha= smoothing.attribute(i);
+            for (int v=0;v<attrSize[i];v++) {
+                double frequency= 0;
+                for (int l=0;l<labelSize;l++) { frequency+= counts.count(l,i,v); }
+                parent[valueOffset[i]+v]= frequency>0 && frequency>=minFrequency;
+            }
+            for (int l=0;l<labelSize;l++) {
+                double labelCount= 0;
+                for (int v=0;v<attrSize[i];v++) { labelCount+= counts.count(l,i,v); }
+                for (int v=0;v<attrSize[i];v++) {
+                    double count= counts.count(l,i,v);
+                    logJoint[l*values + valueOffset[i] + v]= Math.log((count+alpha)/(total+labelSize*attrSize[i]*alpha));
+                    logCond[l*values + valueOffset[i] + v]= Math.log((count+alpha)/(labelCount+attrSize[i]*alpha));
+                }
+            }
+        }
+
+        // P(X_j | Y, X_i) for each ordered pair of attributes, a row for each label and super-parent value
+        stride= values+1;
+        long size= (long) labelSize*values*stride;
+        if (size>Integer.MAX_VALUE-8) {
+            throw new IllegalArgumentException("AODE tables too large: "+size+" entries");
+        }
+        logPair= new double[(int) size];
+        for (int i=0;i<d;i++) {
+            for (int j=0;j<d;j++) {
+                if (i==j) { continue; }
+                double alpha= smoothing.attribute(j);
+                for (int l=0;l<labelSize;l++) {
+                    for (int vi=0;vi<attrSize[i];vi++) {
+                        // N(Y=l, X_i=vi) among the instances where X_j is known
+                        double parentCount= 0;
+                        for (int vj=0;vj<attrSize[j];vj++) { parentCount+= counts.count(l,i,vi,j,vj); }
+                        int base= (l*values + valueOffset[i] + vi)*stride + valueOffset[j];
+                        for (int vj=0;vj<attrSize[j];vj++) {
+                            logPair[base+vj]= Math.log((counts.count(l,i,vi,j,vj)+alpha)/(parentCount+attrSize[j]*alpha));
+                        }
+                    }
+                }
+            }
+        }
+        if (Metrics.ENABLED) { Metrics.get().recordPhase(Metrics.CPT, System.nanoTime()-start); }
+    }
+
+    /** returns the number of class labels */
+    public int labelSize() { return labelSize; }
+
+    /** returns the number of values of the super-parents allowed by the frequency cap */
+    public int parentValues() {
+        int count= 0;
+        for (boolean p: parent) { if (p) { count++; } }
+        return count;
+    }
+
+    /**
+     * classify an encoded instance, without allocating
+     * @param row value position of each attribute, -1 for missing values (a trailing label is ignored)
+     * @param posterior receives P(Y=l | row) for each label
+     * @param index scratch of attributes.size() entries, receives the position of each value of the row in a row of logPair
+     * @return the most likely label
+     */
+    public int predict(int[] row, double[] posterior, int[] index) {
+        int d= attrSize.length, values= parent.length;
+        for (int j=0;j<d;j++) { index[j]= row[j]<0 ? values : valueOffset[j]+row[j]; }
+        for (int l=0;l<labelSize;l++) {
+            // log-sum-exp over the super-parents, with a running maximum
+            double max= Double.NEGATIVE_INFINITY, sum= 0;
+            for (int i=0;i<d;i++) {
+                int vi= row[i];
+                if (vi<0 || !parent[index[i]]) { continue; }
+                int base= (l*values + index[i])*stride;
+                // two independent sums, so that the additions do not wait on each other;
+                // X_i itself and missing values read a 0
+                double score= logJoint[l*values + index[i]], score2= 0;
+                int j= 0;
+                for (;j+1<d;j+=2) {
+                    score+= logPair[base + index[j]];
+                    score2+= logPair[base + index[j+1]];
+                }
+                if (j<d) { score+= logPair[base + index[j]]; }
+                score+= score2;
+                if (score>max) {
+                    sum= sum*Math.exp(max-score) + 1;
+                    max= score;
+                } else {
+                    sum+= Math.exp(score-max);
+                }
+            }
+            if (max==Double.NEGATIVE_INFINITY) {
+                // no super-parent: Naive Bayes
+                double score= logPrior[l];
+                for (int j=0;j<d;j++) {
+                    if (row[j]>=0) { score+= logCond[l*values + index[j]]; }
+                }
+                posterior[l]= score;
+            } else {
+                posterior[l]= max + Math.log(sum);
+            }
+        }
+        return normalize(posterior);
+    }
+
+    /** turns the log scores of the labels into probabilities, returns the most likely label */
+    private int normalize(double[] posterior) {
+        int best= 0;
+        for (int l=1;l<labelSize;l++) {
+            if (posterior[l]>posterior[best]) { best= l; }
+        }
+        double max= posterior[best], sum= 0;
+        for (int l=0;l<labelSize;l++) {
+            posterior[l]= Math.exp(posterior[l]-max);
+            sum+= posterior[l];
+        }
+        for (int l=0;l<labelSize;l++) { posterior[l]/= sum; }
+        return best;
+    }
+
+    /**
+     * classify the instances [from,to) of encoded columns
+     * @param cols value position of each attribute for each instance
+     * @param predictions receives the most likely label of instance r at r-from
+     * @param posteriors receives P(Y=l | instance r) at (r-from)*labelSize + l
+     */
+    public void predict(int[][] cols, int from, int to, int[] predictions, double[] posteriors) {
+        int d= attrSize.length;
+        int[] row= new int[d];
+        double[] posterior= new double[labelSize];
+        int[] index= new int[d];
+        for (int r=from;r<to;r++) {
+            for (int a=0;a<d;a++) { row[a]= cols[a][r]; }
+            predictions[r-from]= predict(row, posterior, index);
+            System.arraycopy(posterior, 0, posteriors, (r-from)*labelSize, labelSize);
+        }
+    }
+
+    /**
+     * classify the first n instances of encoded columns in blocks, on parallelism threads
+     * @see #predict(int[][], int, int, int[], double[])
+     */
+    public void predictAll(int[][] cols, int n, int[] predictions, double[] posteriors) {
+        int block= 1024;
+        if (parallelism<=1 || n<=block) {
+            predict(cols, 0, n, predictions, posteriors);
+            return;
+        }
+        List<Callable<Void>> tasks= new ArrayList<Callable<Void>>();
+        for (int from=0;from<n;from+=block) {
+            final int start= from, end= Math.min(n, from+block);
+            tasks.add(() -> {
+                int[] blockPredictions= new int[end-start];
+                double[] blockPosteriors= new double[(end-start)*labelSize];
+                predict(cols, start, end, blockPredictions, blockPosteriors);
+                System.arraycopy(blockPredictions, 0, predictions, start, end-start);
+                System.arraycopy(blockPosteriors, 0, posteriors, start*labelSize, (end-start)*labelSize);
+                return null;
+            });
+        }
+        ForkJoinPool pool= new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> future: pool.invokeAll(tasks)) { future.get(); }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while scoring", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to score", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * classify the test set,
+     * print the predicted label, actual label and probability of each instance and the accuracy
+     * @param testset
+     */
+    public void classify(ArffDataSet testset) {
+        int n= testset.size();
+        int[][] cols= discretizer==null ? testset.getColumns() : discretizer.apply(testset);
+        int[] labelCol= testset.getLabelColumn();
+        int[] predictions= new int[n];
+        double[] posteriors= new double[n*labelSize];
+        long start= System.nanoTime();
+        predictAll(cols, n, predictions, posteriors);
+        if (Metrics.ENABLED) { Metrics.get().recordScoring(n, System.nanoTime()-start); }
+
+        int correctNum= 0;
+        for (int inst=0;inst<n;inst++) {
+            int label= predictions[inst];
+            String actualLabel= labelCol[inst]<0 ? null : testset.labels.get(labelCol[inst]);
+            System.out.println(header.labels.get(label)+" "+actualLabel+" "+posteriors[inst*labelSize + label]);
+            if (label==labelCol[inst]) { correctNum++; }
+        }
+        System.out.println("\nAccuracy= "+correctNum+"/"+n);
+    }
+
+}
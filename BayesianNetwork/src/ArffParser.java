@@ -7,10 +7,7 @@
 
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
+import java.io.IOException;
 
 
 /**
@@ -23,103 +20,83 @@ public class ArffParser {
 
     public ArffParser() { }
 
-    // create DataSets from reading in file
-    public ArffDataSet createSets(String file) {
-		
-        ArffDataSet dataSet= new ArffDataSet();
-		
-        try {
-            // use BufferRead to read in file
-            BufferedReader lines= new BufferedReader(new FileReader(file));
+    /**
+     * create a DataSet from reading in file
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public ArffDataSet createSets(String file) throws IOException {
+        try (ArffReader reader= open(file)) {
+            ArffDataSet dataSet= reader.header();
 			
-            List<Map<String,Integer>> mapAttrLoc= new ArrayList<Map<String,Integer>>();
-			
-            int numLineCount=0, dataIndex=0;
-            String relation= "";	
-
-            while (lines.ready()) {
-				
-                String dataline= lines.readLine();
-				
-                // check if comment, relation, attribute or data
-                char firstChar= dataline.charAt(0);
-				
-                // skip comments
-                if (firstChar=='%') {
-                    continue;
-				
-                // find if attributes
-                } else if (firstChar=='@') {
-					
-                    // split line as array
-                    String[] header= dataline.split("\\s+");
-					
-                    if (header[0].equals("@relation") || header[0].equals("@Relation") || header[0].equals("@RELATION")) {
-                        if (header.length>1) {
-                            StringBuilder sb= new StringBuilder(header[1]);
-                            relation= sb.toString();
-                        }
-                        dataSet.addRelation(relation);
-				
-                    } else if (header[0].equals("@attribute") || header[0].equals("@Attribute") || header[0].equals("@ATTRIBUTE")) {
-                        dataIndex++;
-
-                        Map<String,Integer> map= new HashMap<String,Integer>();
-						
-                        // get attributes
-                        String attributes= header[1].substring(1, header[1].length()-1);
-						
-                        // get attributes values
-                        StringBuilder sb= new StringBuilder();
-                        for (int i=3;i<header.length; i++) { sb.append(header[i]); }
-                        String[] attributeValues= sb.toString().substring(0,sb.length()-1).split(",");
-						
-                        // remove quotation marks
-                        for (int i=0;i<attributeValues.length;i++) {
-                            String strVal= attributeValues[i];
-                            if ((strVal.charAt(0)=='\'' && strVal.charAt(strVal.length()-1)=='\'') || (strVal.charAt(0)=='"' && strVal.charAt(strVal.length()-1)=='"')) {
-                                attributeValues[i]= strVal.substring(1,strVal.length()-1); }
-                            map.put(attributeValues[i],i);
-                        }
-						
-                        // check if attribute is class/label
-                        if (attributes.equals("class") || attributes.equals("Class") || attributes.equals("CLASS") ) {
-                            dataSet.addLabels(attributeValues);
-                        } else {
-                            dataSet.addAttribute(attributes, attributeValues);
-                            mapAttrLoc.add(map);
-                        }
-						
-                    } else if (header[0].equals("@data") || header[0].equals("@Data") || header[0].equals("@DATA")) {
-                        continue;
-                    } 
-					
-                // data sets
-                } else {
-                    numLineCount++;
-	
-                    // get data values
-                    String[] dataValues= dataline.split("\\s*,");
-                    for (int i=0;i<dataValues.length;i++) {
-                        String strVal= dataValues[i];
-                        if (strVal.charAt(0)=='\'' && strVal.charAt(strVal.length()-1)=='\'') {
-                            dataValues[i]= strVal.substring(1,strVal.length()-1); }
-                    }
+            // data sets, encoded straight from the line unless string attributes need their raw values
+            if (dataSet.hasString()) {
+                String[] dataValues;
+                while ((dataValues= reader.nextFields())!=null) {
                     dataSet.addInstance(dataValues);
                 }
-
-            } // end of while
-
-            dataSet.addMapAttrLoc(mapAttrLoc);
-            lines.close();
+            } else {
+                int d= dataSet.attributes.size();
+                int[] row= new int[d+1];
+                double[] numeric= new double[d];
+                while (reader.next(row, numeric)) {
+                    dataSet.addInstance(row, numeric);
+                }
+            }
+            dataSet.reportUnseen(file);
+            return dataSet;
+        }
+    }
 	
+    /**
+     * create a sparse dataset (see SparseDataSet) from a sparse or dense ARFF file
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public SparseDataSet createSparseSet(String file) throws IOException {
+        try (ArffReader reader= open(file)) {
+            ArffDataSet header= reader.header();
+            if (header.hasNumeric()) {
+                throw new IOException(file+": numeric attributes are not supported in sparse datasets");
+            }
+            SparseDataSet dataSet= new SparseDataSet(header);
+            int[] attrs= new int[header.attributes.size()], vals= new int[header.attributes.size()];
+            while (reader.nextSparse(dataSet, attrs, vals)) { }
             return dataSet;
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(-1);
         }
-        return null;
+    }
+    
+    /**
+     * returns true if the first instance of an ARFF file is written in the sparse format
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSparse(String file) throws IOException {
+        try (BufferedReader lines= new BufferedReader(new FileReader(file), 1<<16)) {
+            boolean data= false;
+            String line;
+            while ((line= lines.readLine())!=null) {
+                line= line.trim();
+                if (line.isEmpty() || line.charAt(0)=='%') { continue; }
+                if (data) { return line.charAt(0)=='{'; }
+                data= line.regionMatches(true, 0, "@data", 0, 5);
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * open a file for streaming: the header is read right away,
+     * instances are then read one at a time from the returned reader
+     * @throws IOException if the file cannot be read or the header is malformed
+     */
+    public ArffReader open(String file) throws IOException {
+        BufferedReader lines= new BufferedReader(new FileReader(file), 1<<16);
+        try {
+            ArffReader reader= new ArffReader(lines);
+            reader.source= file;
+            return reader;
+        } catch (IOException e) {
+            lines.close();
+            throw e;
+        }
     }
 		
 }
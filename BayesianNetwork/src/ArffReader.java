@@ -0,0 +1,431 @@
+/**
+ * ArffReader.java (with ArffParser.java)
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Reads an ARFF file one instance at a time.
+ * The header is read when the reader is created and is available
+ * as an ArffDataSet without instances. Data lines are then returned
+ * either already encoded (next) or as String values (nextFields),
+ * so that a file larger than memory can be consumed in one pass.
+ * Data lines are split by hand: fields are separated by commas,
+ * surrounding whitespace and quotation marks are removed.
+ * Sparse data lines, {index value, ...}, list the attributes (by declaration
+ * position, the class included) that do not take their default value,
+ * the first declared value (0 for numeric attributes).
+ */
+
+public class ArffReader implements Closeable {
+
+    private final BufferedReader lines;
+    private final ArffDataSet header;
+    private int lineNum= 0;
+    private boolean csv= false;  // label column is optional, a first line of attribute names is skipped
+    private boolean[] numericAttr;  // whether each attribute is numeric
+    private int classIndex= -1;  // declaration position of the class among the attributes
+    private final long opened= System.nanoTime();  // start of the read pass, for Metrics
+    private long rows= 0, bytes= 0;  // instances and characters read so far
+    private long[] unseen;  // undeclared values read so far, per attribute then for the label
+    String source= "input";  // name of the file, for the report of undeclared values
+
+    // entries of the current sparse data line: declaration position, value bounds in fieldStart/fieldEnd
+    private boolean sparse= false;
+    private int[] sparseIndex= new int[16];
+
+    // bounds of the fields of the current data line
+    private int fieldNum= 0;
+    private int[] fieldStart= new int[16], fieldEnd= new int[16];
+
+    /**
+     * create a reader and read the header up to the @data line
+     * @throws IOException if the file cannot be read or the header is malformed
+     */
+    public ArffReader(BufferedReader lines) throws IOException {
+        this.lines= lines;
+        this.header= new ArffDataSet();
+        readHeader();
+    }
+
+    /** create a reader over CSV lines whose header is already known */
+    private ArffReader(BufferedReader lines, ArffDataSet header) {
+        this.lines= lines;
+        this.header= header;
+        this.csv= true;
+    }
+
+    /**
+     * create a reader over comma separated values in the order of the attributes of header,
+     * optionally followed by the label; a first line starting with the first attribute name is skipped
+     */
+    public static ArffReader csv(BufferedReader lines, ArffDataSet header) {
+        return new ArffReader(lines, header);
+    }
+
+    /** returns the header (relation, labels, attributes) of the file */
+    public ArffDataSet header() { return header; }
+
+    /** returns the number of lines read so far */
+    public int getLineNumber() { return lineNum; }
+
+    /**
+     * reads the header lines until @data
+     * It removes quotation marks when needed
+     */
+    private void readHeader() throws IOException {
+        List<Map<String,Integer>> mapAttrLoc= new ArrayList<Map<String,Integer>>();
+        String relation= "";
+        int declared= 0;
+        String dataline;
+        while ((dataline= lines.readLine())!=null) {
+            lineNum++;
+            bytes+= dataline.length()+1;
+            dataline= dataline.trim();
+
+            // skip comments and blank lines
+            if (dataline.isEmpty() || dataline.charAt(0)=='%') {
+                continue;
+            }
+            if (dataline.charAt(0)!='@') {
+                throw new IOException("line "+lineNum+": expected @relation, @attribute or @data");
+            }
+
+            // split line as array
+            String[] header= dataline.split("\\s+");
+
+            if (header[0].equalsIgnoreCase("@relation")) {
+                if (header.length>1) {
+                    relation= header[1];
+                }
+                this.header.addRelation(relation);
+
+            } else if (header[0].equalsIgnoreCase("@attribute")) {
+                if (header.length<3) {
+                    throw new IOException("line "+lineNum+": attribute without values");
+                }
+                Map<String,Integer> map= new HashMap<String,Integer>();
+
+                // get attributes
+                String attributes= unquote(header[1]);
+
+                // get attributes values
+                StringBuilder sb= new StringBuilder();
+                for (int i=2;i<header.length; i++) { sb.append(header[i]); }
+                String values= sb.toString();
+                if (values.charAt(0)=='{' && values.charAt(values.length()-1)=='}') {
+                    values= values.substring(1,values.length()-1);
+                }
+                String[] attributeValues= values.split(",");
+
+                // remove quotation marks
+                for (int i=0;i<attributeValues.length;i++) {
+                    attributeValues[i]= unquote(attributeValues[i]);
+                    map.put(attributeValues[i],i);
+                }
+
+                // check if attribute is class/label
+                if (attributes.equalsIgnoreCase("class")) {
+                    this.header.addLabels(attributeValues);
+                    classIndex= declared;
+                } else {
+                    this.header.addAttribute(attributes, attributeValues);
+                    mapAttrLoc.add(map);
+                }
+                declared++;
+
+            } else if (header[0].equalsIgnoreCase("@data")) {
+                this.header.addMapAttrLoc(mapAttrLoc);
+                if (this.header.labels==null || this.header.attributes==null) {
+                    throw new IOException("line "+lineNum+": missing class or attributes before @data");
+                }
+                return;
+            }
+        }
+        throw new IOException("no @data section");
+    }
+
+    /**
+     * reads the next instance, encoded as the position of each value
+     * @param row filled with the value position of each attribute (-1 if not declared),
+     *            followed by the label position at row[attributes.size()] (-1 if not declared or missing)
+     * @return false when there are no more instances
+     */
+    public boolean next(int[] row) throws IOException {
+        return next(row, null);
+    }
+
+    /**
+     * reads the next instance, encoded as the position of each value,
+     * with the parsed values of the numeric attributes
+     * @param numeric receives the value of each numeric attribute (NaN if missing), may be null
+     * @see #next(int[])
+     */
+    public boolean next(int[] row, double[] numeric) throws IOException {
+        String dataline= nextDataLine();
+        if (dataline==null) { return false; }
+        int d= header.attributes.size();
+        if (numericAttr==null) {
+            numericAttr= new boolean[d];
+            for (int a=0;a<d;a++) { numericAttr[a]= header.isNumeric(a); }
+        }
+        if (sparse) {
+            // default values, then the listed ones
+            for (int a=0;a<d;a++) {
+                row[a]= numericAttr[a] ? -1 : 0;
+                if (numeric!=null && numericAttr[a]) { numeric[a]= 0.0; }
+            }
+            row[d]= 0;
+            for (int f=0;f<fieldNum;f++) {
+                int a= sparseAttribute(f);
+                if (a<0) {
+                    row[d]= encode(dataline, d, f);
+                } else if (numericAttr[a]) {
+                    if (numeric!=null) { numeric[a]= ArffDataSet.parseNumeric(field(dataline,f)); }
+                } else {
+                    row[a]= encode(dataline, a, f);
+                }
+            }
+            return true;
+        }
+        for (int a=0;a<d;a++) {
+            if (!numericAttr[a]) {
+                row[a]= encode(dataline, a, a);
+                continue;
+            }
+            row[a]= -1;
+            if (numeric!=null) { numeric[a]= ArffDataSet.parseNumeric(field(dataline,a)); }
+        }
+        row[d]= fieldNum>d ? encode(dataline, d, fieldNum-1) : -1;
+        return true;
+    }
+
+    /**
+     * reads the next instance as String values
+     * @return null when there are no more instances
+     */
+    public String[] nextFields() throws IOException {
+        String dataline= nextDataLine();
+        if (dataline==null) { return null; }
+        if (sparse) {
+            // attributes then label, as in a dense line
+            int d= header.attributes.size();
+            String[] fields= new String[d+1];
+            for (int a=0;a<d;a++) {
+                List<String> values= header.attributeValuesMap.get(header.attributes.get(a));
+                fields[a]= header.isNumeric(a) ? "0" : values.get(0);
+            }
+            fields[d]= header.labels.get(0);
+            for (int f=0;f<fieldNum;f++) {
+                int a= sparseAttribute(f);
+                fields[a<0 ? d : a]= field(dataline,f);
+            }
+            return fields;
+        }
+        String[] fields= new String[fieldNum];
+        for (int f=0;f<fieldNum;f++) { fields[f]= field(dataline,f); }
+        return fields;
+    }
+
+    /**
+     * reads the next instance into a sparse dataset, keeping only the
+     * attributes that do not take their default value (dense lines included)
+     * @param attrs buffer of at least attributes.size() entries
+     * @param vals buffer of at least attributes.size() entries
+     * @return false when there are no more instances
+     */
+    public boolean nextSparse(SparseDataSet into, int[] attrs, int[] vals) throws IOException {
+        String dataline= nextDataLine();
+        if (dataline==null) { return false; }
+        int d= header.attributes.size(), nnz= 0;
+        int label= 0;
+        if (sparse) {
+            for (int f=0;f<fieldNum;f++) {
+                int a= sparseAttribute(f);
+                if (a<0) {
+                    label= encode(dataline, d, f);
+                    continue;
+                }
+                int vi= encode(dataline, a, f);
+                if (vi!=0) {
+                    attrs[nnz]= a;
+                    vals[nnz++]= vi;
+                }
+            }
+        } else {
+            for (int a=0;a<d;a++) {
+                int vi= encode(dataline, a, a);
+                if (vi!=0) {
+                    attrs[nnz]= a;
+                    vals[nnz++]= vi;
+                }
+            }
+            label= fieldNum>d ? encode(dataline, d, fieldNum-1) : -1;
+        }
+        into.addInstance(attrs, vals, nnz, label);
+        return true;
+    }
+
+    /** returns the attribute of entry f of a sparse line, -1 for the class */
+    private int sparseAttribute(int f) {
+        int decl= sparseIndex[f];
+        if (decl==classIndex) { return -1; }
+        return decl<classIndex || classIndex<0 ? decl : decl-1;
+    }
+
+    /** reads the next data line and splits it into fields */
+    private String nextDataLine() throws IOException {
+        String dataline;
+        while ((dataline= lines.readLine())!=null) {
+            lineNum++;
+            bytes+= dataline.length()+1;
+            if (split(dataline)) {
+                if (csv && lineNum==1 && field(dataline,0).equals(header.attributes.get(0))) {
+                    continue;
+                }
+                if (!sparse && fieldNum < (csv ? 0 : 1) + header.attributes.size()) {
+                    throw new IOException("line "+lineNum+": instance doesn't contain enough attributes");
+                }
+                rows++;
+                return dataline;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * records the bounds of each comma separated field, without
+     * surrounding whitespace and quotation marks
+     * @return false if the line is blank or a comment
+     */
+    private boolean split(String line) throws IOException {
+        int len= line.length(), pos= 0;
+        while (pos<len && line.charAt(pos)<=' ') { pos++; }
+        if (pos==len || line.charAt(pos)=='%') { return false; }
+        sparse= line.charAt(pos)=='{';
+        if (sparse) { return splitSparse(line, pos+1); }
+
+        fieldNum= 0;
+        while (true) {
+            int start= pos, end= pos;
+            while (end<len && line.charAt(end)!=',') { end++; }
+            pos= end+1;
+            // trim whitespace
+            while (start<end && line.charAt(start)<=' ') { start++; }
+            while (end>start && line.charAt(end-1)<=' ') { end--; }
+            // remove quotation marks
+            if (end-start>=2) {
+                char first= line.charAt(start), last= line.charAt(end-1);
+                if ((first=='\'' && last=='\'') || (first=='"' && last=='"')) { start++; end--; }
+            }
+            if (fieldNum==fieldStart.length) {
+                fieldStart= Arrays.copyOf(fieldStart, fieldNum*2);
+                fieldEnd= Arrays.copyOf(fieldEnd, fieldNum*2);
+            }
+            fieldStart[fieldNum]= start;
+            fieldEnd[fieldNum]= end;
+            fieldNum++;
+            if (pos>len) { return true; }
+        }
+    }
+
+    /**
+     * records the declaration position and the value bounds of each
+     * "index value" entry of a sparse line, starting after the opening brace
+     * @throws IOException if an entry is malformed
+     */
+    private boolean splitSparse(String line, int pos) throws IOException {
+        int len= line.lastIndexOf('}');
+        if (len<pos) { throw new IOException("line "+lineNum+": sparse instance without closing brace"); }
+        int d= header.attributes.size()+1;
+        fieldNum= 0;
+        while (pos<len) {
+            int end= pos;
+            while (end<len && line.charAt(end)!=',') { end++; }
+            int start= pos;
+            pos= end+1;
+            while (start<end && line.charAt(start)<=' ') { start++; }
+            while (end>start && line.charAt(end-1)<=' ') { end--; }
+            if (start==end) { continue; }
+
+            // the index, then the value
+            int decl= 0, k= start;
+            while (k<end && line.charAt(k)>='0' && line.charAt(k)<='9') { decl= decl*10 + line.charAt(k++)-'0'; }
+            if (k==start || k==end || line.charAt(k)>' ' || decl>=d) {
+                throw new IOException("line "+lineNum+": malformed sparse entry "+line.substring(start,end));
+            }
+            while (k<end && line.charAt(k)<=' ') { k++; }
+            int vEnd= end;
+            if (vEnd-k>=2) {
+                char first= line.charAt(k), last= line.charAt(vEnd-1);
+                if ((first=='\'' && last=='\'') || (first=='"' && last=='"')) { k++; vEnd--; }
+            }
+            if (fieldNum==fieldStart.length) {
+                fieldStart= Arrays.copyOf(fieldStart, fieldNum*2);
+                fieldEnd= Arrays.copyOf(fieldEnd, fieldNum*2);
+            }
+            if (fieldNum>=sparseIndex.length) { sparseIndex= Arrays.copyOf(sparseIndex, fieldStart.length); }
+            sparseIndex[fieldNum]= decl;
+            fieldStart[fieldNum]= k;
+            fieldEnd[fieldNum]= vEnd;
+            fieldNum++;
+        }
+        return true;
+    }
+
+    /**
+     * returns the position of field f of the current line among the values
+     * of attribute a (the labels when a is attributes.size()), -1 if undeclared;
+     * undeclared values other than '?' are counted for the report on close
+     */
+    private int encode(String line, int a, int f) {
+        int code= header.dictionary(a).get(line, fieldStart[f], fieldEnd[f]);
+        if (code<0 && !ValueDictionary.isMissing(line, fieldStart[f], fieldEnd[f])) {
+            if (unseen==null) { unseen= new long[header.attributes.size()+1]; }
+            unseen[a]++;
+        }
+        return code;
+    }
+
+    /** returns field f of the current line */
+    private String field(String line, int f) {
+        return line.substring(fieldStart[f], fieldEnd[f]);
+    }
+
+    /** aux method to remove quotation marks */
+    static String unquote(String strVal) {
+        if (strVal.length()>=2 && ((strVal.charAt(0)=='\'' && strVal.charAt(strVal.length()-1)=='\'') ||
+            (strVal.charAt(0)=='"' && strVal.charAt(strVal.length()-1)=='"'))) {
+            return strVal.substring(1,strVal.length()-1);
+        }
+        return strVal;
+    }
+
+    /**
+     * closes the file, reports the undeclared values in one line
+     * and records the read pass (see Metrics)
+     */
+    public void close() throws IOException {
+        lines.close();
+        if (unseen!=null) {
+            for (int a=0;a<unseen.length;a++) { header.countUnseen(a, unseen[a]); }
+            header.reportUnseen(source);
+            unseen= null;
+        }
+        if (Metrics.ENABLED && rows+bytes>0) {
+            Metrics.get().recordParse(rows, bytes, System.nanoTime()-opened);
+            rows= 0;
+            bytes= 0;
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+/**
+ * BatchScorer.java (with ScoringServer.java)
+ *
+ */
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Scores the instances submitted concurrently by many threads.
+ * While the scorer keeps up, an instance is scored right away on the thread
+ * that submits it (at most threads of them at once), so it pays no hand-off.
+ * Beyond that, instances are queued and grouped into small batches by threads
+ * worker threads: a worker takes what is queued, waits at most maxWait for more
+ * instances (up to maxBatch), scores the batch with the model's kernel and
+ * wakes up the submitting threads. Idle workers park until an instance is
+ * queued, so an idle scorer takes no CPU. Buffers are allocated once per worker.
+ */
+
+public class BatchScorer implements Closeable {
+
+    /** an instance waiting to be scored */
+    public static final class Request {
+        final int[] row;
+        final double[] numeric;
+        final double[] posterior;
+        final long submitted= Metrics.ENABLED ? System.nanoTime() : 0L;  // for the latency (see Metrics)
+        volatile Thread waiter;
+        volatile boolean done= false;
+        volatile Throwable error;  // why the instance was not scored, null if it was
+        int label;
+
+        Request(int[] row, double[] numeric, int labelSize) {
+            this.row= row;
+            this.numeric= numeric;
+            this.posterior= new double[labelSize];
+        }
+
+        /**
+         * waits until the instance is scored and returns the most likely label
+         * @throws RejectedExecutionException if the scorer was closed before scoring it
+         * @throws IllegalStateException if scoring the instance failed (the cause is the failure)
+         */
+        public int await() {
+            while (!done) {
+                LockSupport.park(this);
+            }
+            if (error instanceof RejectedExecutionException) {
+                throw new RejectedExecutionException("the scorer was closed before scoring the instance", error);
+            }
+            if (error!=null) { throw new IllegalStateException("the instance was not scored", error); }
+            return label;
+        }
+
+        /** completes the request without a result, and wakes up its waiter */
+        void fail(Throwable cause) {
+            error= cause;
+            done= true;
+            LockSupport.unpark(waiter);
+        }
+
+        /** returns P(Y=l | row), valid after await */
+        public double[] posterior() { return posterior; }
+    }
+
+    private final InferenceKernel kernel;
+    private final boolean hasGaussian;  // whether instances need their numeric values
+    private final int maxBatch;
+    private final long maxWaitNanos;
+    private final int threads;  // number of workers, and of submitting threads that may score at once
+    private final ConcurrentLinkedQueue<Request> queue= new ConcurrentLinkedQueue<Request>();
+    private final Thread[] workers;
+    private final ConcurrentLinkedDeque<Thread> idle= new ConcurrentLinkedDeque<Thread>();  // workers parked on an empty queue
+    private final AtomicInteger scoring= new AtomicInteger();  // submitting threads scoring their own instance
+    private volatile boolean running= true;
+
+    /**
+     * a scorer with a worker per available processor
+     * @param model trained model
+     * @param maxBatch maximum number of instances scored together
+     * @param maxWaitMicros how long a worker waits for more queued instances before scoring a batch
+     */
+    public BatchScorer(TrainedModel model, int maxBatch, long maxWaitMicros) {
+        this(model, maxBatch, maxWaitMicros, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param model trained model
+     * @param maxBatch maximum number of instances scored together
+     * @param maxWaitMicros how long a worker waits for more queued instances before scoring a batch
+     * @param threads number of worker threads, and of submitting threads that may score their instance themselves
+     */
+    public BatchScorer(TrainedModel model, int maxBatch, long maxWaitMicros, int threads) {
+        this.kernel= model.kernel();
+        this.hasGaussian= model.hasGaussian();
+        this.maxBatch= Math.max(1, maxBatch);
+        this.maxWaitNanos= TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.threads= Math.max(1, threads);
+        this.workers= new Thread[this.threads];
+        for (int w=0;w<workers.length;w++) {
+            workers[w]= new Thread(this::run, "batch-scorer-"+w);
+            workers[w].setDaemon(true);
+            workers[w].start();
+        }
+    }
+
+    /**
+     * score an encoded instance, see submit(int[], double[])
+     * @param row value position of each attribute, must not be modified until scored
+     * @throws IllegalStateException if the model has Gaussian attributes, which need their numeric values
+     */
+    public Request submit(int[] row) {
+        return submit(row, null);
+    }
+
+    /**
+     * score an encoded instance with the values of its numeric attributes: on the calling
+     * thread if nothing is queued and fewer than threads callers are scoring, queued otherwise
+     * @param numeric value of each Gaussian numeric attribute (NaN if missing), null only without Gaussian attributes
+     * @throws RejectedExecutionException if the scorer is closed
+     */
+    public Request submit(int[] row, double[] numeric) {
+        if (!running) { throw new RejectedExecutionException("the scorer is closed"); }
+        if (numeric==null && hasGaussian) {
+            throw new IllegalStateException("the model has Gaussian numeric attributes: submit their values too");
+        }
+        Request request= new Request(row, numeric, kernel.labelSize());
+        request.waiter= Thread.currentThread();
+        if (queue.isEmpty() && scoring.incrementAndGet()<=threads) {
+            try {
+                long start= System.nanoTime();
+                request.label= kernel.predict(row, numeric, request.posterior);
+                if (Metrics.ENABLED) {
+                    long end= System.nanoTime();
+                    Metrics.get().recordScoring(1, end-start);
+                    Metrics.get().recordLatency(end-request.submitted);
+                }
+                request.done= true;
+            } catch (RuntimeException | Error e) {
+                request.fail(e);
+            } finally {
+                scoring.decrementAndGet();
+            }
+            return request;
+        }
+        scoring.decrementAndGet();
+        queue.add(request);
+        // closed meanwhile: take the request back, unless close or a worker already has it
+        if (!running && queue.remove(request)) { throw new RejectedExecutionException("the scorer is closed"); }
+        // wake up an idle worker; if there is none, the busy ones poll the queue before parking
+        Thread worker= idle.poll();
+        if (worker!=null) { LockSupport.unpark(worker); }
+        return request;
+    }
+
+    /** scores the queued instances batch by batch until closed */
+    private void run() {
+        Request[] batch= new Request[maxBatch];
+        int[][] rows= new int[maxBatch][];
+        double[][] numerics= new double[maxBatch][];
+        int[] predictions= new int[maxBatch];
+        double[] posteriors= new double[maxBatch*kernel.labelSize()];
+        int labelSize= kernel.labelSize();
+
+        Thread self= Thread.currentThread();
+        while (running) {
+            Request first= queue.poll();
+            if (first==null) {
+                // announce the worker before checking the queue again, so that a submit cannot miss it
+                idle.push(self);
+                if (running && queue.isEmpty()) { LockSupport.park(this); }
+                idle.remove(self);
+                continue;
+            }
+            // collect more instances until the batch is full or maxWait has passed
+            int n= 0;
+            batch[n++]= first;
+            long deadline= System.nanoTime()+maxWaitNanos;
+            while (n<maxBatch) {
+                Request next= queue.poll();
+                if (next!=null) {
+                    batch[n++]= next;
+                } else if (System.nanoTime()<deadline) {
+                    Thread.onSpinWait();
+                } else {
+                    break;
+                }
+            }
+
+            for (int k=0;k<n;k++) {
+                rows[k]= batch[k].row;
+                numerics[k]= batch[k].numeric;
+            }
+            long start= System.nanoTime();
+            try {
+                kernel.predict(rows, numerics, n, predictions, posteriors);
+            } catch (RuntimeException | Error e) {
+                // e.g. a malformed row: score the instances one by one, so that only the bad ones fail
+                scoreEach(batch, n);
+                for (int k=0;k<n;k++) {
+                    batch[k]= null;
+                    rows[k]= null;
+                    numerics[k]= null;
+                }
+                continue;
+            }
+            if (Metrics.ENABLED) {
+                long end= System.nanoTime();
+                Metrics.get().recordScoring(n, end-start);
+                for (int k=0;k<n;k++) { Metrics.get().recordLatency(end-batch[k].submitted); }
+            }
+            for (int k=0;k<n;k++) {
+                Request request= batch[k];
+                System.arraycopy(posteriors, k*labelSize, request.posterior, 0, labelSize);
+                request.label= predictions[k];
+                request.done= true;
+                LockSupport.unpark(request.waiter);
+                batch[k]= null;
+                rows[k]= null;
+                numerics[k]= null;
+            }
+        }
+    }
+
+    /** scores the instances of a failed batch one at a time, failing only those that cannot be scored */
+    private void scoreEach(Request[] batch, int n) {
+        for (int k=0;k<n;k++) {
+            Request request= batch[k];
+            try {
+                request.label= kernel.predict(request.row, request.numeric, request.posterior);
+            } catch (RuntimeException | Error e) {
+                request.fail(e);
+                continue;
+            }
+            if (Metrics.ENABLED) { Metrics.get().recordLatency(System.nanoTime()-request.submitted); }
+            request.done= true;
+            LockSupport.unpark(request.waiter);
+        }
+    }
+
+    /**
+     * stops the worker threads: the batches being scored complete, the instances
+     * still queued fail (their await throws RejectedExecutionException) and later submits throw
+     */
+    public void close() {
+        running= false;
+        for (Thread worker: workers) { LockSupport.unpark(worker); }
+        RejectedExecutionException closed= new RejectedExecutionException("the scorer is closed");
+        Request pending;
+        while ((pending= queue.poll())!=null) { pending.fail(closed); }
+    }
+
+}
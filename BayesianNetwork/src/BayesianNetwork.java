@@ -6,6 +6,15 @@
  *
  */
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
@@ -15,9 +24,24 @@ import java.util.HashMap;
 public class BayesianNetwork {
 
     public static void main(String[] args) {
+        // train once and save the model, or score with a saved model
+        if (args.length>0 && args[0].equals("train")) {
+            trainModel(args);
+            return;
+        } else if (args.length>0 && args[0].equals("score")) {
+            scoreModel(args);
+            return;
+        } else if (args.length>0 && args[0].equals("serve")) {
+            serveModel(args);
+            return;
+        } else if (args.length>0 && args[0].equals("cv")) {
+            crossValidate(args);
+            return;
+        }
+        
         // read in files		
         if (args.length != 3) {
-            System.out.println("usage: bayes <trainFilename> <testFilename> <n|t>");
+            printUsage();
             System.exit(-1);
         }
 
@@ -25,16 +49,18 @@ public class BayesianNetwork {
         String trainFile = args[0], testFile = args[1];
         String options= args[2];
 				
-        // check if correct options		
-        if (! (options.equals("n") || options.equals("t") ) ) {
-            System.out.println("Please enter n or t\nyour input: "+options);
-            System.exit(-1);
+        // check if correct options (AODE and KDB only train and classify in this mode)
+        checkOptions(options, "ntak");
+        boolean denseOnly= options.equals("a") || options.equals("k");
+        
+        // sparse files with nominal attributes are classified in O(nnz) per instance (AODE and KDB read them densely)
+        if (!denseOnly && classifySparse(trainFile, testFile, options)) {
+            return;
         }
 		
         // define and create new DataSets
-        ArffParser ap=new ArffParser();
-        ArffDataSet trainDataset= ap.createSets(trainFile);
-        ArffDataSet testDataset= ap.createSets(testFile);
+        ArffDataSet trainDataset= loadDataSet(trainFile);
+        ArffDataSet testDataset= loadDataSet(testFile);
 		
         // check if same metavalues
         if (!trainDataset.sameMetaValues(testDataset)) {
@@ -51,10 +77,230 @@ public class BayesianNetwork {
             TAN tan= new TAN();
             tan.train(trainDataset);
             tan.classify(testDataset);
-        }	
+        } else if (options.equals("a")) {
+            AODE aode= new AODE();
+            aode.train(trainDataset);
+            aode.classify(testDataset);
+        } else {
+            KDB kdb= new KDB();
+            kdb.train(trainDataset);
+            kdb.classify(testDataset);
+        }
+    }
+    
+    
+    /** aux method to print the usage of each mode **/
+    private static void printUsage() {
+        System.out.println("usage: bayes <trainFilename> <testFilename> <n|t|a|k>");
+        System.out.println("       bayes train <trainFilename> <n|t> <modelFilename>");
+        System.out.println("       bayes score <modelFilename> <arff|csv file> [outputFilename]");
+        System.out.println("       bayes serve <modelFilename> [port]");
+        System.out.println("       bayes cv <trainFilename> <n|t> [folds]");
+    }
+    
+    /** aux method to check the classifier option against the options allowed in the mode, e.g. "nt" **/
+    private static void checkOptions(String options, String allowed) {
+        if (options.length()!=1 || allowed.indexOf(options.charAt(0))<0) {
+            StringBuilder choices= new StringBuilder();
+            for (int k=0;k<allowed.length();k++) {
+                if (k>0) { choices.append(k==allowed.length()-1 ? " or " : ", "); }
+                choices.append(allowed.charAt(k));
+            }
+            System.out.println("Please enter "+choices+"\nyour input: "+options);
+            System.exit(-1);
+        }
+    }
+    
+    
+    /**
+     * train and classify sparse ARFF files (see SparseDataSet)
+     * @return false if the training file is not sparse or has numeric attributes
+     */
+    private static boolean classifySparse(String trainFile, String testFile, String options) {
+        try {
+            if (BinaryFormat.isDataSet(trainFile) || !ArffParser.isSparse(trainFile)) {
+                return false;
+            }
+            ArffParser parser= new ArffParser();
+            SparseDataSet trainDataset, testDataset;
+            try {
+                trainDataset= parser.createSparseSet(trainFile);
+            } catch (IOException e) {
+                return false;  // read densely instead
+            }
+            testDataset= parser.createSparseSet(testFile);
+            if (!trainDataset.header.sameMetaValues(testDataset.header)) {
+                System.out.println("Error: metavalues are not the same...");
+                System.exit(-1);
+            }
+            if (options.equals("n")) {
+                NaiveBayes nb= new NaiveBayes();
+                nb.train(trainDataset);
+                nb.classify(testDataset);
+            } else {
+                TAN tan= new TAN();
+                tan.train(trainDataset);
+                tan.classify(testDataset);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        return false;
+    }
+    
+    
+    /**
+     * train a model and write it to the model file
+     * ARFF files are streamed, so the training set does not need to fit in memory
+     * args: train <trainFilename> <n|t> <modelFilename>
+     */
+    private static void trainModel(String[] args) {
+        if (args.length != 4) {
+            printUsage();
+            System.exit(-1);
+        }
+        String trainFile= args[1], options= args[2], modelFile= args[3];
+        checkOptions(options, "nt");
+        
+        try {
+            TrainedModel model;
+            if (options.equals("n")) {
+                NaiveBayes nb= new NaiveBayes();
+                if (BinaryFormat.isDataSet(trainFile)) { nb.train(BinaryFormat.readDataSet(trainFile)); }
+                else { try (ArffReader reader= new ArffParser().open(trainFile)) { nb.train(reader); } }
+                model= nb.toModel();
+            } else {
+                TAN tan= new TAN();
+                if (BinaryFormat.isDataSet(trainFile)) { tan.train(BinaryFormat.readDataSet(trainFile)); }
+                else { try (ArffReader reader= new ArffParser().open(trainFile)) { tan.train(reader); } }
+                model= tan.toModel();
+            }
+            BinaryFormat.writeModel(model, modelFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+    
+    
+    /**
+     * classify each instance of an ARFF or CSV file with a saved model
+     * prints the predicted label and its probability for each instance
+     * args: score <modelFilename> <arff|csv file> [outputFilename]
+     */
+    private static void scoreModel(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            printUsage();
+            System.exit(-1);
+        }
+        String modelFile= args[1], inputFile= args[2];
+        
+        try {
+            TrainedModel model= BinaryFormat.readModel(modelFile);
+            boolean csv= inputFile.toLowerCase().endsWith(".csv");
+            try (ArffReader reader= csv ? ArffReader.csv(new BufferedReader(new FileReader(inputFile), 1<<16), model.header)
+                                        : new ArffParser().open(inputFile)) {
+                if (!csv && !model.header.sameMetaValues(reader.header())) {
+                    System.out.println("Error: metavalues are not the same...");
+                    System.exit(-1);
+                }
+                // closing the writer closes the output file, but leaves standard output open
+                try (Writer out= new BufferedWriter(args.length==4 ? new FileWriter(args[3])
+                                                                   : new OutputStreamWriter(unclosable(System.out)), 1<<16)) {
+                    int[] row= new int[model.attributes().size()+1];
+                    double[] numeric= new double[model.attributes().size()];
+                    double[] posterior= new double[model.labels().size()];
+                    while (reader.next(row, numeric)) {
+                        model.discretize(row, numeric);
+                        int label= model.predict(row, numeric, posterior);
+                        out.write(model.labels().get(label)+" "+posterior[label]+"\n");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+    
+    /** aux method to wrap a stream so that closing the wrapper only flushes it **/
+    private static OutputStream unclosable(OutputStream stream) {
+        return new FilterOutputStream(stream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+            
+            @Override
+            public void close() throws IOException { flush(); }
+        };
     }
 		
 	
+    /**
+     * serve a saved model over HTTP until the process is stopped
+     * args: serve <modelFilename> [port]
+     */
+    private static void serveModel(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            printUsage();
+            System.exit(-1);
+        }
+        try {
+            int port= args.length==3 ? Integer.parseInt(args[2]) : 8080;
+            ScoringServer server= new ScoringServer(BinaryFormat.readModel(args[1]), port, 256, 50);
+            server.start();
+            System.out.println("serving "+args[1]+" on port "+server.getPort());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+		
+	
+    /**
+     * stratified k-fold cross-validation on the training file
+     * args: cv <trainFilename> <n|t> [folds]
+     */
+    private static void crossValidate(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            printUsage();
+            System.exit(-1);
+        }
+        checkOptions(args[2], "nt");
+        CrossValidation cv= new CrossValidation(args[2].equals("n") ? TrainedModel.NAIVE_BAYES : TrainedModel.TAN);
+        try {
+            if (args.length==4) { cv.setFolds(Integer.parseInt(args[3])); }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter at least 2 folds\nyour input: "+args[3]);
+            System.exit(-1);
+        }
+        cv.setParallelism(Runtime.getRuntime().availableProcessors());
+        CrossValidation.print(cv.run(loadDataSet(args[1])));
+    }
+		
+	
+    /**
+     * aux method to read a DataSet from an ARFF file or from a binary dataset (see BinaryFormat)
+     * dense ARFF files are decoded on every core (see MappedArffLoader)
+     */
+    private static ArffDataSet loadDataSet(String file) {
+        try {
+            if (BinaryFormat.isDataSet(file)) {
+                return BinaryFormat.readDataSet(file);
+            }
+            if (ArffParser.isSparse(file)) {
+                return new ArffParser().createSets(file);
+            }
+            return MappedArffLoader.load(file, Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        return null;
+    }
+	
+	
     /** aux method to print out number DataSets info **/
     private static void printDataSetInfo(ArffDataSet arffdataset) {
 		
@@ -79,7 +325,7 @@ public class BayesianNetwork {
     	
         // instances
         int countI= 0;
-        for (Instance i: arffdataset.instances) {
+        for (Instance i: arffdataset.getInstances()) {
             countI++;
             for (String str: i.attributes) System.out.print(str+","); 
             System.out.println();
@@ -0,0 +1,279 @@
+/**
+ * BinaryFormat.java
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Reads and writes encoded datasets and trained models in a compact,
+ * versioned binary format, so that repeated runs skip the ARFF parsing.
+ * Files are read through memory mappings: the columns and tables are
+ * bulk-copied out of the mapping without any text decoding.
+ *
+ * Layout (big-endian):
+ * dataset: magic "BNDS", version, header, instance count, label column, attribute columns,
+ *          values of the numeric attributes (since version 2)
+ * model:   magic "BNMD", version, type, header, label priors, parent attributes, tables,
+ *          cut points or Gaussian parameters of each numeric attribute (since version 2)
+ * header:  relation, labels, then name and values of each attribute;
+ *          strings are stored as their UTF-8 length followed by the bytes.
+ *
+ * usage: java BinaryFormat <arff-file> <binary-file>  (convert a dataset)
+ */
+
+public class BinaryFormat {
+
+    static final int DATASET_MAGIC= 0x424e4453;  // "BNDS"
+    static final int MODEL_MAGIC= 0x424e4d44;  // "BNMD"
+    static final int VERSION= 2;
+
+    private static final int MAX_MAPPING= 1<<30;  // a mapping must stay below 2GB
+
+    // how a model handles each attribute
+    private static final byte NOMINAL= 0, CUT_POINTS= 1, GAUSSIAN= 2;
+
+    private BinaryFormat() { }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: java BinaryFormat <arff-file> <binary-file>");
+            System.exit(-1);
+        }
+        writeDataSet(new ArffParser().createSets(args[0]), args[1]);
+    }
+
+    /** returns true if the file starts with the magic number of a binary dataset */
+    public static boolean isDataSet(String file) {
+        try (FileChannel channel= FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return channel.size()>=4 && channel.map(FileChannel.MapMode.READ_ONLY, 0, 4).getInt()==DATASET_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * write the header, the encoded columns and the numeric columns of a dataset
+     * string values are not stored
+     */
+    public static void writeDataSet(ArffDataSet dataset, String file) throws IOException {
+        try (DataOutputStream out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16))) {
+            out.writeInt(DATASET_MAGIC);
+            out.writeInt(VERSION);
+            writeHeader(out, dataset);
+            int n= dataset.size();
+            out.writeInt(n);
+            writeInts(out, dataset.getLabelColumn(), n);
+            for (int a=0;a<dataset.attributes.size();a++) {
+                writeInts(out, dataset.getColumn(a), n);
+            }
+            for (int a=0;a<dataset.attributes.size();a++) {
+                if (!dataset.isNumeric(a)) { continue; }
+                double[] values= dataset.getNumericColumn(a);
+                for (int k=0;k<n;k++) { out.writeDouble(values[k]); }
+            }
+        }
+    }
+
+    /** read a dataset written by writeDataSet */
+    public static ArffDataSet readDataSet(String file) throws IOException {
+        long start= System.nanoTime();
+        try (FileChannel channel= FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            MappedByteBuffer buf= channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAX_MAPPING));
+            int version= checkMagic(buf, DATASET_MAGIC, file);
+            ArffDataSet dataset= readHeader(buf);
+            int n= buf.getInt();
+            long pos= buf.position();
+            int[] labelCol= new int[n];
+            pos= readInts(channel, pos, labelCol);
+            int[][] cols= new int[dataset.attributes.size()][];
+            for (int a=0;a<cols.length;a++) {
+                cols[a]= new int[n];
+                pos= readInts(channel, pos, cols[a]);
+            }
+            double[][] numCols= new double[cols.length][];
+            for (int a=0;a<cols.length && version>=2;a++) {
+                if (!dataset.isNumeric(a)) { continue; }
+                numCols[a]= new double[n];
+                pos= readDoubles(channel, pos, numCols[a]);
+            }
+            dataset.addEncodedInstances(cols, numCols, labelCol, n);
+            if (Metrics.ENABLED) { Metrics.get().recordParse(n, pos, System.nanoTime()-start); }
+            return dataset;
+        }
+    }
+
+    /** write a trained model */
+    public static void writeModel(TrainedModel model, String file) throws IOException {
+        try (DataOutputStream out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16))) {
+            out.writeInt(MODEL_MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(model.type);
+            writeHeader(out, model.header);
+            for (double p: model.probLabel) { out.writeDouble(p); }
+            for (int par: model.parentAttribute) { out.writeInt(par); }
+            for (double[] table: model.probTable) {
+                out.writeInt(table.length);
+                for (double p: table) { out.writeDouble(p); }
+            }
+            for (int a=0;a<model.attrSize.length;a++) {
+                double[] params= model.cutPoints[a]!=null ? model.cutPoints[a] : model.gaussian[a];
+                out.writeByte(model.cutPoints[a]!=null ? CUT_POINTS : model.gaussian[a]!=null ? GAUSSIAN : NOMINAL);
+                if (params==null) { continue; }
+                out.writeInt(params.length);
+                for (double p: params) { out.writeDouble(p); }
+            }
+        }
+    }
+
+    /** read a model written by writeModel */
+    public static TrainedModel readModel(String file) throws IOException {
+        try (FileChannel channel= FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            if (channel.size()>Integer.MAX_VALUE) { throw new IOException(file+": model file too large"); }
+            MappedByteBuffer buf= channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version= checkMagic(buf, MODEL_MAGIC, file);
+            char type= (char) buf.get();
+            if (type!=TrainedModel.NAIVE_BAYES && type!=TrainedModel.TAN) {
+                throw new IOException(file+": unknown model type "+type);
+            }
+            ArffDataSet header= readHeader(buf);
+            int labelSize= header.labels.size(), d= header.attributes.size();
+            double[] probLabel= new double[labelSize];
+            buf.asDoubleBuffer().get(probLabel);
+            buf.position(buf.position()+8*labelSize);
+            int[] parentAttribute= new int[d];
+            buf.asIntBuffer().get(parentAttribute);
+            buf.position(buf.position()+4*d);
+            double[][] probTable= new double[d][];
+            for (int e=0;e<d;e++) {
+                probTable[e]= new double[buf.getInt()];
+                buf.asDoubleBuffer().get(probTable[e]);
+                buf.position(buf.position()+8*probTable[e].length);
+            }
+            double[][] cutPoints= new double[d][], gaussian= new double[d][];
+            for (int a=0;a<d && version>=2;a++) {
+                byte kind= buf.get();
+                if (kind==NOMINAL) { continue; }
+                double[] params= new double[buf.getInt()];
+                buf.asDoubleBuffer().get(params);
+                buf.position(buf.position()+8*params.length);
+                if (kind==CUT_POINTS) { cutPoints[a]= params; }
+                else { gaussian[a]= params; }
+            }
+            return new TrainedModel(type, header, probLabel, parentAttribute, probTable, cutPoints, gaussian);
+        }
+    }
+
+    /**
+     * aux method to check the magic number and version
+     * @return the version of the file
+     */
+    private static int checkMagic(MappedByteBuffer buf, int magic, String file) throws IOException {
+        if (buf.limit()<8 || buf.getInt()!=magic) {
+            throw new IOException(file+": not a "+(magic==MODEL_MAGIC ? "model" : "dataset")+" file");
+        }
+        int version= buf.getInt();
+        if (version<1 || version>VERSION) {
+            throw new IOException(file+": unsupported version "+version);
+        }
+        return version;
+    }
+
+    private static void writeHeader(DataOutputStream out, ArffDataSet header) throws IOException {
+        writeString(out, header.relation==null ? "" : header.relation);
+        out.writeInt(header.labels.size());
+        for (String label: header.labels) { writeString(out, label); }
+        out.writeInt(header.attributes.size());
+        for (String attr: header.attributes) {
+            writeString(out, attr);
+            List<String> values= header.attributeValuesMap.get(attr);
+            out.writeInt(values.size());
+            for (String value: values) { writeString(out, value); }
+        }
+    }
+
+    private static ArffDataSet readHeader(MappedByteBuffer buf) {
+        ArffDataSet header= new ArffDataSet();
+        header.addRelation(readString(buf));
+        String[] labels= new String[buf.getInt()];
+        for (int l=0;l<labels.length;l++) { labels[l]= readString(buf); }
+        header.addLabels(labels);
+        int d= buf.getInt();
+        List<Map<String,Integer>> mapAttrLoc= new ArrayList<Map<String,Integer>>();
+        for (int a=0;a<d;a++) {
+            String attr= readString(buf);
+            String[] values= new String[buf.getInt()];
+            Map<String,Integer> map= new HashMap<String,Integer>();
+            for (int v=0;v<values.length;v++) {
+                values[v]= readString(buf);
+                map.put(values[v], v);
+            }
+            header.addAttribute(attr, values);
+            mapAttrLoc.add(map);
+        }
+        header.addMapAttrLoc(mapAttrLoc);
+        return header;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes= str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buf) {
+        byte[] bytes= new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int n) throws IOException {
+        for (int k=0;k<n;k++) { out.writeInt(values[k]); }
+    }
+
+    /**
+     * bulk-copy ints starting at byte pos of the file, mapping at most 1GB at a time
+     * @return the byte position after the last int
+     */
+    private static long readInts(FileChannel channel, long pos, int[] dst) throws IOException {
+        int done= 0;
+        while (done<dst.length) {
+            int len= Math.min(dst.length-done, MAX_MAPPING/4);
+            MappedByteBuffer buf= channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L*len);
+            buf.asIntBuffer().get(dst, done, len);
+            done+= len;
+            pos+= 4L*len;
+        }
+        return pos;
+    }
+
+    /**
+     * bulk-copy doubles starting at byte pos of the file, mapping at most 1GB at a time
+     * @return the byte position after the last double
+     */
+    private static long readDoubles(FileChannel channel, long pos, double[] dst) throws IOException {
+        int done= 0;
+        while (done<dst.length) {
+            int len= Math.min(dst.length-done, MAX_MAPPING/8);
+            MappedByteBuffer buf= channel.map(FileChannel.MapMode.READ_ONLY, pos, 8L*len);
+            buf.asDoubleBuffer().get(dst, done, len);
+            done+= len;
+            pos+= 8L*len;
+        }
+        return pos;
+    }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * BitmapIndex.java (with CountTable.java and TAN.java)
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Index of an encoded dataset with one bitset per attribute value and one per label:
+ * bit r of the bitset of X_i=v is set if instance r has value v (missing values and
+ * undeclared labels set no bit). Any count is then the popcount of an AND of bitsets,
+ * e.g. N(X_i=vi, X_j=vj, Y=l) = |bits(X_i=vi) & bits(X_j=vj) & bits(Y=l)|,
+ * 64 instances per word.
+ * Filling a CountTable this way takes about labelSize * (sum of the arities)^2/2 * n/64
+ * word operations instead of n*d^2/2 increments row by row, which pays off for
+ * attributes with few values. The index is built once and can serve any number of
+ * trainings (TAN.setIndex), for any subset of the attributes.
+ * Bitsets are plain long[]: the index takes (sum of the arities + labelSize) * n/8 bytes.
+ */
+
+public final class BitmapIndex {
+
+    private final int size;  // number of instances
+    private final int words;  // number of longs of each bitset
+    final int labelSize;  // number of class labels
+    final int[] arity;  // number of values of each attribute
+    private final int[] valueOffset;  // start of attribute i in valueBits
+    private final long[][] valueBits;  // bitset of X_i=v at valueOffset[i] + v
+    private final long[][] labelBits;  // bitset of Y=l
+
+    private BitmapIndex(int size, int labelSize, int[] arity) {
+        this.size= size;
+        this.words= (size+63)>>>6;
+        this.labelSize= labelSize;
+        this.arity= arity.clone();
+        valueOffset= new int[arity.length];
+        int values= 0;
+        for (int i=0;i<arity.length;i++) {
+            valueOffset[i]= values;
+            values+= arity[i];
+        }
+        valueBits= new long[values][words];
+        labelBits= new long[labelSize][words];
+    }
+
+    /**
+     * index an encoded dataset
+     * @throws IllegalArgumentException if the dataset has numeric attributes (index their discretized columns instead)
+     */
+    public static BitmapIndex build(ArffDataSet dataset) {
+        if (dataset.hasNumeric()) {
+            throw new IllegalArgumentException("numeric attributes must be discretized before they are indexed");
+        }
+        return build(dataset.getColumns(), dataset.getLabelColumn(), dataset.size(), dataset.labels.size(), dataset.getArity());
+    }
+
+    /**
+     * index the first n instances of encoded columns
+     * @param arity number of values of each column
+     */
+    public static BitmapIndex build(int[][] cols, int[] labelCol, int n, int labelSize, int[] arity) {
+        BitmapIndex index= new BitmapIndex(n, labelSize, arity);
+        for (int r=0;r<n;r++) {
+            if (labelCol[r]>=0) { index.labelBits[labelCol[r]][r>>>6]|= 1L<<r; }
+        }
+        for (int i=0;i<arity.length;i++) {
+            int[] col= cols[i];
+            int offset= index.valueOffset[i];
+            for (int r=0;r<n;r++) {
+                if (col[r]>=0) { index.valueBits[offset+col[r]][r>>>6]|= 1L<<r; }
+            }
+        }
+        return index;
+    }
+
+    /** returns the number of instances */
+    public int size() { return size; }
+
+    /** returns the number of bytes taken by the bitsets */
+    public long memoryBytes() { return (long) (valueBits.length+labelBits.length)*words*8; }
+
+    /** N(Y=l) */
+    public long count(int l) { return popcount(labelBits[l], labelBits[l], 0, words); }
+
+    /** N(X_i=vi, Y=l) */
+    public long count(int l, int i, int vi) { return popcount(valueBits[valueOffset[i]+vi], labelBits[l], 0, words); }
+
+    /** N(X_i=vi, X_j=vj, Y=l) */
+    public long count(int l, int i, int vi, int j, int vj) {
+        long[] a= valueBits[valueOffset[i]+vi], b= valueBits[valueOffset[j]+vj], c= labelBits[l];
+        long count= 0;
+        for (int w=0;w<words;w++) { count+= Long.bitCount(a[w] & b[w] & c[w]); }
+        return count;
+    }
+
+    /**
+     * fill a CountTable with popcounts, for all attributes or a subset of them;
+     * the counts are the same as CountTable.count over the same columns
+     * @param attributes attributes to count, in the order of the table; null for all of them
+     * @param pairs whether to count the attribute pairs
+     * @param parallelism number of threads, each one counting the pairs of one attribute at a time
+     */
+    public CountTable counts(int[] attributes, boolean pairs, int parallelism) {
+        if (attributes==null) {
+            attributes= new int[arity.length];
+            for (int i=0;i<arity.length;i++) { attributes[i]= i; }
+        }
+        final int[] attrs= attributes;
+        CountTable table= new CountTable(labelSize, FeatureSelection.project(arity, attrs), pairs);
+        for (int l=0;l<labelSize;l++) { table.labelCount[l]= count(l); }
+
+        if (parallelism<=1) {
+            for (int k=0;k<attrs.length;k++) { countAttribute(table, attrs, k); }
+            return table;
+        }
+        List<Callable<Void>> tasks= new ArrayList<Callable<Void>>();
+        for (int k=0;k<attrs.length;k++) {
+            final int pos= k;
+            tasks.add(() -> { countAttribute(table, attrs, pos); return null; });
+        }
+        ForkJoinPool pool= new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> future: pool.invokeAll(tasks)) { future.get(); }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while counting", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to count", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return table;
+    }
+
+    /**
+     * fill the counts of attribute attrs[k] and of its pairs with the attributes after it:
+     * each X_i=v, Y=l bitset is computed once, with the range of its non-zero words,
+     * and ANDed with the bitsets of the other attributes over that range only
+     */
+    private void countAttribute(CountTable table, int[] attrs, int k) {
+        int i= attrs[k];
+        long[] both= new long[words];
+        for (int l=0;l<labelSize;l++) {
+            long[] label= labelBits[l];
+            for (int vi=0;vi<arity[i];vi++) {
+                long[] bits= valueBits[valueOffset[i]+vi];
+                long count= 0;
+                for (int w=0;w<words;w++) {
+                    both[w]= bits[w] & label[w];
+                    count+= Long.bitCount(both[w]);
+                }
+                table.xiCount[table.xiOffset[k] + l*arity[i] + vi]= count;
+                if (table.pairCount==null || count==0) { continue; }
+
+                int lo= 0, hi= words;
+                while (both[lo]==0) { lo++; }
+                while (both[hi-1]==0) { hi--; }
+                for (int m=k+1;m<attrs.length;m++) {
+                    int j= attrs[m];
+                    int base= table.pairOffset[k][m] + (l*arity[i] + vi)*arity[j];
+                    for (int vj=0;vj<arity[j];vj++) {
+                        table.pairCount[base+vj]= popcount(both, valueBits[valueOffset[j]+vj], lo, hi);
+                    }
+                }
+            }
+        }
+    }
+
+    /** returns the number of bits set in a & b over words [from,to) */
+    private static long popcount(long[] a, long[] b, int from, int to) {
+        long count= 0;
+        for (int w=from;w<to;w++) { count+= Long.bitCount(a[w] & b[w]); }
+        return count;
+    }
+
+}
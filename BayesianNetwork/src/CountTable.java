@@ -0,0 +1,458 @@
+/**
+ * CountTable.java (with NaiveBayes.java and TAN.java)
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * This class stores the sufficient statistics of a labelled data set
+ * in flat primitive arrays:
+ * N(Y=l), N(X_i=v_i, Y=l) and, optionally, N(X_i=v_i, X_j=v_j, Y=l) for i<j.
+ * Offsets for each attribute and attribute pair are precomputed
+ * so that a count is read with a single array access.
+ */
+
+public class CountTable {
+
+    final int labelSize; // number of class labels
+    final int[] arity; // number of values for each attribute
+
+    final double[] labelCount; // N(Y=l)
+    final int[] xiOffset; // start of attribute i in xiCount
+    final double[] xiCount; // N(X_i=v_i, Y=l) at xiOffset[i] + l*arity[i] + v_i
+    final int[][] pairOffset; // start of pair (i,j), i<j, in pairCount
+    final double[] pairCount; // N(X_i=v_i, X_j=v_j, Y=l) at pairOffset[i][j] + (l*arity[i] + v_i)*arity[j] + v_j
+
+    /**
+     * create an empty table
+     * @param labelSize number of class labels
+     * @param arity number of values for each attribute
+     * @param pairs whether to keep the pairwise counts
+     */
+    CountTable(int labelSize, int[] arity, boolean pairs) {
+        this.labelSize= labelSize;
+        this.arity= arity.clone();
+        this.labelCount= new double[labelSize];
+
+        int d= arity.length;
+        xiOffset= new int[d];
+        long size= 0;
+        for (int i=0;i<d;i++) {
+            xiOffset[i]= (int) size;
+            size+= (long) labelSize*arity[i];
+        }
+        xiCount= new double[checkSize(size)];
+
+        if (!pairs) {
+            pairOffset= null;
+            pairCount= null;
+            return;
+        }
+        pairOffset= new int[d][];
+        size= 0;
+        for (int i=0;i<d;i++) {
+            pairOffset[i]= new int[d];
+            for (int j=i+1;j<d;j++) {
+                pairOffset[i][j]= checkSize(size);
+                size+= (long) labelSize*arity[i]*arity[j];
+            }
+        }
+        pairCount= new double[checkSize(size)];
+    }
+
+    /** create an empty table with the same layout as other */
+    CountTable(CountTable other) {
+        this.labelSize= other.labelSize;
+        this.arity= other.arity;
+        this.xiOffset= other.xiOffset;
+        this.pairOffset= other.pairOffset;
+        this.labelCount= new double[other.labelCount.length];
+        this.xiCount= new double[other.xiCount.length];
+        this.pairCount= other.pairCount==null ? null : new double[other.pairCount.length];
+    }
+
+    /** returns a copy of the table, with the same layout and counts */
+    CountTable copy() {
+        CountTable res= new CountTable(this);
+        System.arraycopy(labelCount, 0, res.labelCount, 0, labelCount.length);
+        System.arraycopy(xiCount, 0, res.xiCount, 0, xiCount.length);
+        if (pairCount!=null) { System.arraycopy(pairCount, 0, res.pairCount, 0, pairCount.length); }
+        return res;
+    }
+
+    /** aux method to make sure a flat array fits */
+    private static int checkSize(long size) {
+        if (size > Integer.MAX_VALUE-8) {
+            throw new IllegalArgumentException("count table too large: "+size+" entries");
+        }
+        return (int) size;
+    }
+
+    /** returns true if the pairwise counts are kept */
+    public boolean hasPairs() { return pairCount!=null; }
+
+    /**
+     * add the instances [from,to) of the encoded columns
+     * instances with an undeclared label are skipped,
+     * undeclared attribute values (-1) are not counted
+     */
+    public void add(int[][] cols, int[] labelCol, int from, int to) {
+        for (int inst=from;inst<to;inst++) { add(cols, labelCol, inst, 1.0); }
+    }
+
+    /**
+     * add the instances [from,to) of the encoded columns, each one weights[inst] times
+     * @see #add(int[][], int[], int, int)
+     */
+    public void add(int[][] cols, int[] labelCol, double[] weights, int from, int to) {
+        if (weights==null) {
+            add(cols, labelCol, from, to);
+            return;
+        }
+        for (int inst=from;inst<to;inst++) { add(cols, labelCol, inst, weights[inst]); }
+    }
+
+    /**
+     * add the instances [from,to) of the encoded columns, each one weight times;
+     * a weight of -1 removes instances added before, in place
+     * @see #add(int[][], int[], int, int)
+     */
+    public void add(int[][] cols, int[] labelCol, int from, int to, double weight) {
+        for (int inst=from;inst<to;inst++) { add(cols, labelCol, inst, weight); }
+    }
+
+    /**
+     * add the instances of the encoded columns at the given positions
+     * @see #add(int[][], int[], int, int)
+     */
+    public void add(int[][] cols, int[] labelCol, int[] positions) {
+        for (int inst: positions) { add(cols, labelCol, inst, 1.0); }
+    }
+
+    /**
+     * add the instances of the encoded columns at the given positions, each one weight times;
+     * a weight of -1 removes instances added before, in place
+     * @see #add(int[][], int[], int, int)
+     */
+    public void add(int[][] cols, int[] labelCol, int[] positions, double weight) {
+        for (int inst: positions) { add(cols, labelCol, inst, weight); }
+    }
+
+    /** add instance inst of the encoded columns w times */
+    private void add(int[][] cols, int[] labelCol, int inst, double w) {
+        int d= arity.length;
+        int l= labelCol[inst];
+        if (l<0) { return; }
+        labelCount[l]+= w;
+        for (int i=0;i<d;i++) {
+            int vi= cols[i][inst];
+            if (vi<0) { continue; }
+            xiCount[xiOffset[i] + l*arity[i] + vi]+= w;
+            if (pairCount==null) { continue; }
+            int[] offsets= pairOffset[i];
+            for (int j=i+1;j<d;j++) {
+                int vj= cols[j][inst];
+                if (vj<0) { continue; }
+                pairCount[offsets[j] + (l*arity[i] + vi)*arity[j] + vj]+= w;
+            }
+        }
+    }
+
+    /**
+     * add a single encoded instance
+     * @param row value position of each attribute, followed by the label position
+     */
+    public void add(int[] row) {
+        int d= arity.length;
+        int l= row[d];
+        if (l<0) { return; }
+        labelCount[l]++;
+        for (int i=0;i<d;i++) {
+            int vi= row[i];
+            if (vi<0) { continue; }
+            xiCount[xiOffset[i] + l*arity[i] + vi]++;
+            if (pairCount==null) { continue; }
+            int[] offsets= pairOffset[i];
+            for (int j=i+1;j<d;j++) {
+                int vj= row[j];
+                if (vj<0) { continue; }
+                pairCount[offsets[j] + (l*arity[i] + vi)*arity[j] + vj]++;
+            }
+        }
+    }
+
+    /**
+     * count all instances read from an ARFF stream, in a single pass
+     * @param reader stream positioned at the first instance
+     * @param pairs whether to keep the pairwise counts
+     */
+    public static CountTable count(ArffReader reader, boolean pairs) throws IOException {
+        return count(reader, pairs, null);
+    }
+
+    /**
+     * count all instances read from an ARFF stream, in a single pass,
+     * and accumulate the values of the numeric attributes into gaussian
+     * @param gaussian receives the moments of the numeric attributes, may be null
+     */
+    public static CountTable count(ArffReader reader, boolean pairs, GaussianStats gaussian) throws IOException {
+        ArffDataSet header= reader.header();
+        int d= header.attributes.size();
+        int[] arity= new int[d];
+        for (int a=0;a<d;a++) { arity[a]= header.getArity(a); }
+        CountTable table= new CountTable(header.labels.size(), arity, pairs);
+        int[] row= new int[d+1];
+        double[] numeric= gaussian==null ? null : new double[d];
+        while (reader.next(row, numeric)) {
+            table.add(row);
+            if (gaussian!=null) { gaussian.add(numeric, row[d]); }
+        }
+        return table;
+    }
+
+    /**
+     * count the instances of a sparse dataset in O(nnz) per instance, O(nnz^2) with pairs:
+     * only the entries of attributes that do not take their default value (position 0)
+     * are visited, and the counts involving default values are derived once at the end.
+     * With L_i the instances listing attribute i (missing values included):
+     * N(X_i=0, Y=l)= N(Y=l) - L_i
+     * N(X_i=a, X_j=0, Y=l)= N(X_i=a, Y=l) - #(X_i=a and j listed)
+     * N(X_i=0, X_j=0, Y=l)= N(Y=l) - L_i - L_j + #(i and j listed)
+     * so the result is identical to counting the dense instances.
+     * @param pairs whether to keep the pairwise counts
+     */
+    public static CountTable count(SparseDataSet data, boolean pairs) {
+        ArffDataSet header= data.header;
+        int d= header.attributes.size();
+        int[] arity= new int[d];
+        for (int a=0;a<d;a++) { arity[a]= header.getArity(a); }
+        CountTable table= new CountTable(header.labels.size(), arity, pairs);
+        double[] listed= new double[table.labelSize*d];  // L_i for label l at l*d + i
+
+        int[] rowStart= data.getRowStart(), attrIndex= data.getAttrIndex(), valueIndex= data.getValueIndex();
+        int[] labelCol= data.getLabelColumn();
+        for (int inst=0;inst<data.size();inst++) {
+            int l= labelCol[inst];
+            if (l<0) { continue; }
+            table.labelCount[l]++;
+            for (int p=rowStart[inst];p<rowStart[inst+1];p++) {
+                int i= attrIndex[p], vi= valueIndex[p];
+                listed[l*d + i]++;
+                if (vi>=0) { table.xiCount[table.xiOffset[i] + l*arity[i] + vi]++; }
+                if (!pairs) { continue; }
+                for (int q=p+1;q<rowStart[inst+1];q++) {
+                    int j= attrIndex[q], vj= valueIndex[q];
+                    if (j<i) { table.addListedPair(l, j, vj, i, vi); }
+                    else { table.addListedPair(l, i, vi, j, vj); }
+                }
+            }
+        }
+
+        // counts involving default values
+        for (int l=0;l<table.labelSize;l++) {
+            for (int i=0;i<d;i++) {
+                table.xiCount[table.xiOffset[i] + l*arity[i]]= table.labelCount[l] - listed[l*d + i];
+            }
+        }
+        if (!pairs) { return table; }
+        for (int l=0;l<table.labelSize;l++) {
+            for (int i=0;i<d;i++) {
+                for (int j=i+1;j<d;j++) {
+                    int base= table.pairOffset[i][j] + l*arity[i]*arity[j];
+                    for (int vi=1;vi<arity[i];vi++) { table.pairCount[base + vi*arity[j]]+= table.count(l,i,vi); }
+                    for (int vj=1;vj<arity[j];vj++) { table.pairCount[base + vj]+= table.count(l,j,vj); }
+                    table.pairCount[base]+= table.labelCount[l] - listed[l*d + i] - listed[l*d + j];
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * per-instance part of the sparse pair counts for listed attributes i<j:
+     * the pair itself, minus what the defaults of the other attribute will add back
+     */
+    private void addListedPair(int l, int i, int vi, int j, int vj) {
+        int base= pairOffset[i][j] + l*arity[i]*arity[j];
+        if (vi>=0 && vj>=0) { pairCount[base + vi*arity[j] + vj]++; }
+        if (vi>=0) { pairCount[base + vi*arity[j]]--; }
+        if (vj>=0) { pairCount[base + vj]--; }
+        pairCount[base]++;
+    }
+
+    /** N(total), the number of counted instances */
+    public double total() {
+        double sum= 0.0;
+        for (int l=0;l<labelSize;l++) { sum+= labelCount[l]; }
+        return sum;
+    }
+
+    /**
+     * add all counts of other (same layout) to this table
+     */
+    public void merge(CountTable other) {
+        addAll(labelCount, other.labelCount);
+        addAll(xiCount, other.xiCount);
+        if (pairCount!=null) { addAll(pairCount, other.pairCount); }
+    }
+
+    /**
+     * remove all counts of other (same layout) from this table,
+     * other must only count instances that were added to this table
+     */
+    public void subtract(CountTable other) {
+        subtractAll(labelCount, other.labelCount);
+        subtractAll(xiCount, other.xiCount);
+        if (pairCount!=null) { subtractAll(pairCount, other.pairCount); }
+    }
+
+    /**
+     * returns the counts of the selected attributes, with their pairwise counts if kept
+     * @param selected attribute positions in increasing order
+     */
+    public CountTable project(int[] selected) {
+        CountTable res= new CountTable(labelSize, FeatureSelection.project(arity, selected), pairCount!=null);
+        System.arraycopy(labelCount, 0, res.labelCount, 0, labelSize);
+        for (int s=0;s<selected.length;s++) {
+            int i= selected[s];
+            System.arraycopy(xiCount, xiOffset[i], res.xiCount, res.xiOffset[s], labelSize*arity[i]);
+            if (pairCount==null) { continue; }
+            for (int t=s+1;t<selected.length;t++) {
+                int j= selected[t];
+                System.arraycopy(pairCount, pairOffset[i][j], res.pairCount, res.pairOffset[s][t], labelSize*arity[i]*arity[j]);
+            }
+        }
+        return res;
+    }
+
+    private static void addAll(double[] into, double[] from) {
+        for (int k=0;k<into.length;k++) { into[k]+= from[k]; }
+    }
+
+    private static void subtractAll(double[] into, double[] from) {
+        for (int k=0;k<into.length;k++) { into[k]-= from[k]; }
+    }
+
+    /**
+     * count all instances of the dataset
+     * with parallelism>1 the instances are split into one contiguous range per thread,
+     * each counted into its own table on a ForkJoinPool, and the tables are merged
+     * pairwise (tree reduction).
+     * Counts are integers, so the result is identical to the sequential one.
+     * @param dataset encoded dataset
+     * @param pairs whether to keep the pairwise counts
+     * @param parallelism number of worker threads
+     */
+    public static CountTable count(ArffDataSet dataset, boolean pairs, int parallelism) {
+        int d= dataset.attributes.size();
+        int[] arity= new int[d];
+        int[][] cols= new int[d][];
+        for (int a=0;a<d;a++) {
+            arity[a]= dataset.getArity(a);
+            cols[a]= dataset.getColumn(a);
+        }
+        return count(cols, dataset.getLabelColumn(), dataset.size(), dataset.labels.size(), arity, pairs, parallelism);
+    }
+
+    /**
+     * count the first n instances of encoded columns
+     * @param arity number of values of each column
+     * @see #count(ArffDataSet, boolean, int)
+     */
+    public static CountTable count(int[][] cols, int[] labelCol, int n, int labelSize, int[] arity, boolean pairs, int parallelism) {
+        return count(cols, labelCol, null, n, labelSize, arity, pairs, parallelism);
+    }
+
+    /**
+     * count the distinct rows of a dataset with their weights, which gives the same
+     * counts as counting every instance, in time proportional to the distinct rows
+     * @param rows distinct rows of encoded columns, with their labels
+     * @see #count(ArffDataSet, boolean, int)
+     */
+    public static CountTable count(DistinctRows rows, int labelSize, int[] arity, boolean pairs, int parallelism) {
+        return count(rows.cols, rows.labelCol, rows.weights, rows.size, labelSize, arity, pairs, parallelism);
+    }
+
+    /**
+     * count the first n instances of encoded columns, collapsing duplicate rows first
+     * @see #count(int[][], int[], int, int, int[], boolean, int)
+     */
+    public static CountTable countDistinct(int[][] cols, int[] labelCol, int n, int labelSize, int[] arity, boolean pairs, int parallelism) {
+        return count(DistinctRows.of(cols, labelCol, n), labelSize, arity, pairs, parallelism);
+    }
+
+    /** count the first n instances of encoded columns, weighted by weights (null for 1) */
+    private static CountTable count(int[][] cols, int[] labelCol, double[] weights, int n, int labelSize, int[] arity, boolean pairs, int parallelism) {
+        CountTable table= new CountTable(labelSize, arity, pairs);
+        if (parallelism<=1) {
+            table.add(cols, labelCol, weights, 0, n);
+            return table;
+        }
+        // one contiguous range, and so one table, per thread
+        int parts= Math.max(1, Math.min(parallelism, n));
+        ForkJoinPool pool= new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new CountTask(table, cols, labelCol, weights, n, parts, 0, parts));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * counts the ranges [lo,hi) of the n instances split into parts contiguous ranges:
+     * a range is counted into its own table (the first one into layout), and
+     * the tables of two halves are merged (tree reduction)
+     */
+    private static class CountTask extends RecursiveTask<CountTable> {
+        private static final long serialVersionUID= 1L;
+        private final CountTable layout;
+        private final int[][] cols;
+        private final int[] labelCol;
+        private final double[] weights;
+        private final int n, parts, lo, hi;
+
+        CountTask(CountTable layout, int[][] cols, int[] labelCol, double[] weights, int n, int parts, int lo, int hi) {
+            this.layout= layout;
+            this.cols= cols;
+            this.labelCol= labelCol;
+            this.weights= weights;
+            this.n= n;
+            this.parts= parts;
+            this.lo= lo;
+            this.hi= hi;
+        }
+
+        @Override
+        protected CountTable compute() {
+            if (hi-lo==1) {
+                CountTable shard= lo==0 ? layout : new CountTable(layout);
+                shard.add(cols, labelCol, weights, (int) ((long) lo*n/parts), (int) ((long) hi*n/parts));
+                return shard;
+            }
+            int mid= (lo+hi)>>>1;
+            CountTask left= new CountTask(layout, cols, labelCol, weights, n, parts, lo, mid);
+            left.fork();
+            CountTable right= new CountTask(layout, cols, labelCol, weights, n, parts, mid, hi).compute();
+            CountTable res= left.join();
+            res.merge(right);
+            return res;
+        }
+    }
+
+    /** N(Y=l) */
+    public double count(int l) { return labelCount[l]; }
+
+    /** N(X_i=vi, Y=l) */
+    public double count(int l, int i, int vi) { return xiCount[xiOffset[i] + l*arity[i] + vi]; }
+
+    /** N(X_i=vi, X_j=vj, Y=l) for any i!=j */
+    public double count(int l, int i, int vi, int j, int vj) {
+        if (i>j) { return pairCount[pairOffset[j][i] + (l*arity[j] + vj)*arity[i] + vi]; }
+        return pairCount[pairOffset[i][j] + (l*arity[i] + vi)*arity[j] + vj];
+    }
+
+}
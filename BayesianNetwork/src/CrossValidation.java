@@ -0,0 +1,240 @@
+/**
+ * CrossValidation.java (with BayesianNetwork.java)
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Stratified k-fold cross-validation of NaiveBayes or TAN.
+ * The training set is counted once; the instances of each label are
+ * shuffled and dealt to the folds in turn, so every fold keeps the label
+ * proportions.
+ * The model of a fold is trained from the full counts minus the counts
+ * of the fold, instead of counting the other k-1 folds again,
+ * and the folds are trained and scored in parallel.
+ * Numeric attributes are handled as by the classifiers: Naive Bayes keeps
+ * Gaussian statistics, subtracted per fold like the counts, while TAN
+ * discretizes them with bins fitted on the training part of each fold,
+ * which is then counted on its own.
+ */
+
+public class CrossValidation {
+
+    /** results of one fold */
+    public static final class Fold {
+        public final int size;  // number of held-out instances
+        public final int correct;  // number of correctly classified instances
+        public final double logLoss;  // mean of -ln P(true label | instance)
+        public final long time;  // ns spent to count, train and score the fold
+
+        Fold(int size, int correct, double logLoss, long time) {
+            this.size= size;
+            this.correct= correct;
+            this.logLoss= logLoss;
+            this.time= time;
+        }
+
+        public double accuracy() { return size==0 ? 0.0 : (double) correct/size; }
+    }
+
+    private static final double MIN_PROB= 1e-15;  // bounds the log-loss of a single instance
+
+    private final char type;  // TrainedModel.NAIVE_BAYES or TrainedModel.TAN
+    private int folds= 10;
+    private int parallelism= 1;
+    private long seed= 1L;
+
+    /**
+     * @param type TrainedModel.NAIVE_BAYES or TrainedModel.TAN
+     */
+    public CrossValidation(char type) {
+        if (type!=TrainedModel.NAIVE_BAYES && type!=TrainedModel.TAN) {
+            throw new IllegalArgumentException("unknown model type "+type);
+        }
+        this.type= type;
+    }
+
+    /** set the number of folds (10 by default) */
+    public void setFolds(int folds) {
+        if (folds<2) { throw new IllegalArgumentException("at least 2 folds are needed"); }
+        this.folds= folds;
+    }
+
+    /** set the number of threads counting the training set and evaluating the folds */
+    public void setParallelism(int parallelism) { this.parallelism= Math.max(1, parallelism); }
+
+    /** set the seed used to shuffle the instances into folds */
+    public void setSeed(long seed) { this.seed= seed; }
+
+    /**
+     * run the cross-validation
+     * @param dataset labelled training set
+     * @return the results of each fold
+     */
+    public Fold[] run(ArffDataSet dataset) {
+        // count the whole training set once, the pairs only for TAN (whose bins depend on the fold)
+        boolean binned= type==TrainedModel.TAN && dataset.hasNumeric();
+        CountTable full= binned ? null : CountTable.count(dataset, type==TrainedModel.TAN, parallelism);
+        GaussianStats gaussStats= type==TrainedModel.NAIVE_BAYES && dataset.hasNumeric() ? GaussianStats.count(dataset) : null;
+        int[][] labelInstances= dataset.getLabelInstances();
+        int[][] foldInstances= stratify(labelInstances);
+
+        int d= dataset.attributes.size();
+        int[][] cols= new int[d][];
+        for (int a=0;a<d;a++) { cols[a]= dataset.getColumn(a); }
+        int[] labelCol= dataset.getLabelColumn();
+
+        List<Callable<Fold>> tasks= new ArrayList<Callable<Fold>>();
+        for (int f=0;f<folds;f++) {
+            final int[] positions= foldInstances[f];
+            tasks.add(() -> full==null ? evaluateBinned(dataset, labelCol, positions)
+                                       : evaluate(dataset, full, gaussStats, cols, labelCol, positions));
+        }
+        Fold[] res= new Fold[folds];
+        ForkJoinPool pool= new ForkJoinPool(parallelism);
+        try {
+            List<Future<Fold>> futures= pool.invokeAll(tasks);
+            for (int f=0;f<folds;f++) { res[f]= futures.get(f).get(); }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted during cross-validation", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("cross-validation failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return res;
+    }
+
+    /** shuffle the instances of each label and deal them to the folds in turn */
+    private int[][] stratify(int[][] labelInstances) {
+        int[] foldSize= new int[folds];
+        int next= 0;
+        for (int[] bucket: labelInstances) {
+            for (int k=0;k<bucket.length;k++) { foldSize[(next+k)%folds]++; }
+            next= (next+bucket.length)%folds;
+        }
+        int[][] foldInstances= new int[folds][];
+        for (int f=0;f<folds;f++) { foldInstances[f]= new int[foldSize[f]]; }
+
+        Random random= new Random(seed);
+        int[] filled= new int[folds];
+        next= 0;
+        for (int[] bucket: labelInstances) {
+            int[] shuffled= bucket.clone();
+            for (int k=shuffled.length-1;k>0;k--) {
+                int r= random.nextInt(k+1);
+                int tmp= shuffled[k];
+                shuffled[k]= shuffled[r];
+                shuffled[r]= tmp;
+            }
+            for (int k=0;k<shuffled.length;k++) {
+                int f= (next+k)%folds;
+                foldInstances[f][filled[f]++]= shuffled[k];
+            }
+            next= (next+shuffled.length)%folds;
+        }
+        return foldInstances;
+    }
+
+    /**
+     * train on all instances but the fold and score the fold
+     * @param gaussStats statistics of the numeric attributes of the whole training set, null if none
+     */
+    private Fold evaluate(ArffDataSet dataset, CountTable full, GaussianStats gaussStats, int[][] cols, int[] labelCol, int[] positions) {
+        long start= System.nanoTime();
+
+        // counts of the other folds: the full counts minus the fold, in place
+        CountTable counts= full.copy();
+        counts.add(cols, labelCol, positions, -1.0);
+
+        TrainedModel model;
+        if (type==TrainedModel.NAIVE_BAYES) {
+            GaussianStats foldStats= null;
+            if (gaussStats!=null) {
+                foldStats= gaussStats.copy();
+                foldStats.add(dataset, positions, true);
+            }
+            NaiveBayes nb= new NaiveBayes();
+            nb.train(dataset, counts, null, foldStats);
+            model= nb.toModel();
+        } else {
+            TAN tan= new TAN();
+            tan.train(dataset, counts);
+            model= tan.toModel();
+        }
+        return score(dataset, model, cols, labelCol, positions, start);
+    }
+
+    /**
+     * train TAN on all instances but the fold, with numeric attributes discretized
+     * by bins fitted on these instances, and score the fold
+     */
+    private Fold evaluateBinned(ArffDataSet dataset, int[] labelCol, int[] positions) {
+        long start= System.nanoTime();
+
+        // the other folds
+        boolean[] held= new boolean[dataset.size()];
+        for (int inst: positions) { held[inst]= true; }
+        int[] training= new int[dataset.size()-positions.length];
+        int n= 0;
+        for (int inst=0;inst<held.length;inst++) {
+            if (!held[inst]) { training[n++]= inst; }
+        }
+
+        Discretizer discretizer= Discretizer.fit(dataset, training, Discretizer.DEFAULT_BINS);
+        int[][] cols= discretizer.apply(dataset);
+        CountTable counts= new CountTable(dataset.labels.size(), discretizer.arity(dataset), true);
+        counts.add(cols, labelCol, training, 1.0);
+
+        TAN tan= new TAN();
+        tan.train(dataset, counts, discretizer, null);
+        return score(dataset, tan.toModel(), cols, labelCol, positions, start);
+    }
+
+    /** aux method to score the fold with the model of the other folds */
+    private static Fold score(ArffDataSet dataset, TrainedModel model, int[][] cols, int[] labelCol, int[] positions, long start) {
+        InferenceKernel kernel= model.kernel();
+        int d= cols.length;
+        int[] row= new int[d];
+        double[] numeric= dataset.hasNumeric() ? new double[d] : null;
+        double[] posterior= new double[kernel.labelSize()];
+        int correct= 0;
+        double logLoss= 0.0;
+        for (int inst: positions) {
+            for (int a=0;a<d;a++) { row[a]= cols[a][inst]; }
+            if (numeric!=null) {
+                for (int a=0;a<d;a++) { numeric[a]= dataset.isNumeric(a) ? dataset.getNumericColumn(a)[inst] : Double.NaN; }
+            }
+            int label= kernel.predict(row, numeric, posterior);
+            if (label==labelCol[inst]) { correct++; }
+            logLoss-= Math.log(Math.max(MIN_PROB, posterior[labelCol[inst]]));
+        }
+        return new Fold(positions.length, correct, positions.length==0 ? 0.0 : logLoss/positions.length, System.nanoTime()-start);
+    }
+
+    /** print the results of each fold and their mean */
+    public static void print(Fold[] res) {
+        System.out.println("fold\tsize\taccuracy\tlog-loss\ttime(ms)");
+        int size= 0, correct= 0;
+        double logLoss= 0.0, time= 0.0;
+        for (int f=0;f<res.length;f++) {
+            Fold fold= res[f];
+            System.out.printf("%d\t%d\t%.4f\t%.4f\t%.3f\n", f+1, fold.size, fold.accuracy(), fold.logLoss, fold.time/1e6);
+            size+= fold.size;
+            correct+= fold.correct;
+            logLoss+= fold.logLoss*fold.size;
+            time+= fold.time/1e6;
+        }
+        System.out.printf("all\t%d\t%.4f\t%.4f\t%.3f\n", size, size==0 ? 0.0 : (double) correct/size, size==0 ? 0.0 : logLoss/size, time);
+    }
+
+}
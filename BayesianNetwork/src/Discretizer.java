@@ -0,0 +1,237 @@
+/**
+ * Discretizer.java (with NaiveBayes.java and TAN.java)
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Turns numeric attributes into nominal ones with equal-frequency bins.
+ * Value x of attribute a falls in the first bin whose cut point is >= x,
+ * or in the last bin; missing values (NaN) are encoded as -1.
+ * Cut points are estimated from the numeric columns of a dataset or, for
+ * an ARFF stream, from a uniform (reservoir) sample of all its instances, so
+ * that sorted or time-ordered streams get the same bins. The bins of an instance
+ * are only known once the whole stream is sampled, and TAN counts them jointly,
+ * so a stream longer than the sample takes two passes: the input is parsed once,
+ * its encoded instances are written to a temporary file (O(n) disk), and that
+ * file is read back to count them.
+ */
+
+public final class Discretizer {
+
+    static final int DEFAULT_BINS= 10;
+    static final int SAMPLE_SIZE= 1<<16;  // instances sampled to fit the cut points of a stream
+    private static final long SAMPLE_SEED= 0x5EEDL;  // the same stream always gets the same bins
+
+    final double[][] cutPoints;  // increasing cut points of each numeric attribute, null for the other ones
+
+    Discretizer(double[][] cutPoints) {
+        this.cutPoints= cutPoints;
+    }
+
+    /**
+     * fit the cut points of the numeric attributes of a dataset
+     * @param bins maximal number of bins of each attribute
+     */
+    public static Discretizer fit(ArffDataSet dataset, int bins) {
+        double[][] cutPoints= new double[dataset.attributes.size()][];
+        for (int a=0;a<cutPoints.length;a++) {
+            if (dataset.isNumeric(a)) { cutPoints[a]= cutPoints(dataset.getNumericColumn(a), dataset.size(), bins); }
+        }
+        return new Discretizer(cutPoints);
+    }
+
+    /**
+     * fit the cut points of the numeric attributes on the instances of a dataset at the given positions,
+     * e.g. the training part of a cross-validation fold
+     * @param bins maximal number of bins of each attribute
+     */
+    static Discretizer fit(ArffDataSet dataset, int[] positions, int bins) {
+        double[][] cutPoints= new double[dataset.attributes.size()][];
+        double[] values= new double[positions.length];
+        for (int a=0;a<cutPoints.length;a++) {
+            if (!dataset.isNumeric(a)) { continue; }
+            double[] col= dataset.getNumericColumn(a);
+            for (int k=0;k<positions.length;k++) { values[k]= col[positions[k]]; }
+            cutPoints[a]= cutPoints(values, positions.length, bins);
+        }
+        return new Discretizer(cutPoints);
+    }
+
+    /**
+     * returns the equal-frequency cut points of the first n values (NaN values are ignored),
+     * equal cut points are merged, so there may be fewer than bins-1
+     */
+    static double[] cutPoints(double[] values, int n, int bins) {
+        double[] sorted= new double[n];
+        int m= 0;
+        for (int k=0;k<n;k++) {
+            if (!Double.isNaN(values[k])) { sorted[m++]= values[k]; }
+        }
+        Arrays.sort(sorted, 0, m);
+        double[] cuts= new double[Math.max(0, bins-1)];
+        int size= 0;
+        for (int b=1;b<bins && m>0;b++) {
+            double cut= sorted[(int) ((long) b*m/bins)];
+            if (cut<sorted[m-1] && (size==0 || cut>cuts[size-1])) { cuts[size++]= cut; }
+        }
+        return Arrays.copyOf(cuts, size);
+    }
+
+    /** returns the number of values of each attribute once discretized */
+    public int[] arity(ArffDataSet header) {
+        int[] arity= new int[cutPoints.length];
+        for (int a=0;a<arity.length;a++) {
+            arity[a]= cutPoints[a]==null ? header.getArity(a) : cutPoints[a].length+1;
+        }
+        return arity;
+    }
+
+    /** returns the bin of value x of numeric attribute a, -1 if missing */
+    public int bin(int a, double x) {
+        if (Double.isNaN(x)) { return -1; }
+        int pos= Arrays.binarySearch(cutPoints[a], x);
+        return pos>=0 ? pos : -pos-1;
+    }
+
+    /**
+     * returns the encoded columns of a dataset where numeric attributes are replaced
+     * by their bins; the columns of the other attributes are shared with the dataset
+     */
+    public int[][] apply(ArffDataSet dataset) {
+        int[][] cols= new int[cutPoints.length][];
+        for (int a=0;a<cols.length;a++) {
+            if (cutPoints[a]==null) {
+                cols[a]= dataset.getColumn(a);
+                continue;
+            }
+            double[] values= dataset.getNumericColumn(a);
+            cols[a]= new int[dataset.size()];
+            for (int inst=0;inst<dataset.size();inst++) { cols[a][inst]= bin(a, values[inst]); }
+        }
+        return cols;
+    }
+
+    /** replace the value positions of the numeric attributes of row by their bins */
+    public void apply(int[] row, double[] numeric) {
+        for (int a=0;a<cutPoints.length;a++) {
+            if (cutPoints[a]!=null) { row[a]= bin(a, numeric[a]); }
+        }
+    }
+
+    /**
+     * count an ARFF stream, discretizing its numeric attributes: the cut points are
+     * fitted on a reservoir sample of SAMPLE_SIZE instances of the whole stream;
+     * streams up to SAMPLE_SIZE instances are buffered and counted in memory, longer
+     * ones are written to a temporary file in binary (4 bytes per attribute, 8 more per
+     * numeric one) and read back a second time to be discretized and counted
+     * @param fitted receives the discretizer
+     */
+    static CountTable count(ArffReader reader, int bins, boolean pairs, Discretizer[] fitted) throws IOException {
+        ArffDataSet header= reader.header();
+        int d= header.attributes.size();
+
+        // the first instances, and the reservoir of numeric values (Algorithm R)
+        int[][] rows= new int[SAMPLE_SIZE][];
+        double[][] values= new double[d][];
+        for (int a=0;a<d;a++) {
+            if (header.isNumeric(a)) { values[a]= new double[SAMPLE_SIZE]; }
+        }
+        Random random= new Random(SAMPLE_SEED);
+        long seen= 0;
+        int[] row= new int[d+1];
+        double[] numeric= new double[d];
+        File spill= null;
+        DataOutputStream out= null;
+        try {
+            while (reader.next(row, numeric)) {
+                if (seen<SAMPLE_SIZE) {
+                    rows[(int) seen]= row.clone();
+                    for (int a=0;a<d;a++) {
+                        if (values[a]!=null) { values[a][(int) seen]= numeric[a]; }
+                    }
+                    seen++;
+                    continue;
+                }
+                if (out==null) {
+                    // the stream outgrows the sample: spill the buffered instances, then the next ones
+                    spill= File.createTempFile("discretizer", ".spill");
+                    out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spill), 1<<16));
+                    double[] buffered= new double[d];
+                    for (int k=0;k<SAMPLE_SIZE;k++) {
+                        for (int a=0;a<d;a++) {
+                            if (values[a]!=null) { buffered[a]= values[a][k]; }
+                        }
+                        write(out, rows[k], buffered, values);
+                    }
+                    rows= null;
+                }
+                write(out, row, numeric, values);
+                seen++;
+                long slot= (long) (random.nextDouble()*seen);
+                if (slot<SAMPLE_SIZE) {
+                    for (int a=0;a<d;a++) {
+                        if (values[a]!=null) { values[a][(int) slot]= numeric[a]; }
+                    }
+                }
+            }
+
+            double[][] cutPoints= new double[d][];
+            int sampled= (int) Math.min(seen, SAMPLE_SIZE);
+            for (int a=0;a<d;a++) {
+                if (header.isNumeric(a)) { cutPoints[a]= cutPoints(values[a], sampled, bins); }
+            }
+            Discretizer discretizer= new Discretizer(cutPoints);
+            fitted[0]= discretizer;
+
+            // count the buffered or spilled instances
+            CountTable table= new CountTable(header.labels.size(), discretizer.arity(header), pairs);
+            if (out==null) {
+                for (int k=0;k<sampled;k++) {
+                    for (int a=0;a<d;a++) {
+                        if (values[a]!=null) { numeric[a]= values[a][k]; }
+                    }
+                    discretizer.apply(rows[k], numeric);
+                    table.add(rows[k]);
+                }
+                return table;
+            }
+            out.close();
+            out= null;
+            try (DataInputStream in= new DataInputStream(new BufferedInputStream(new FileInputStream(spill), 1<<16))) {
+                for (long k=0;k<seen;k++) {
+                    for (int a=0;a<=d;a++) { row[a]= in.readInt(); }
+                    for (int a=0;a<d;a++) {
+                        if (values[a]!=null) { numeric[a]= in.readDouble(); }
+                    }
+                    discretizer.apply(row, numeric);
+                    table.add(row);
+                }
+            }
+            return table;
+        } finally {
+            if (out!=null) { out.close(); }
+            if (spill!=null) { spill.delete(); }
+        }
+    }
+
+    /** aux method to spill an instance: its value positions and label, then its numeric values */
+    private static void write(DataOutputStream out, int[] row, double[] numeric, double[][] values) throws IOException {
+        for (int a=0;a<row.length;a++) { out.writeInt(row[a]); }
+        for (int a=0;a<values.length;a++) {
+            if (values[a]!=null) { out.writeDouble(numeric[a]); }
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * DistinctRows.java (with CountTable.java and TrainedModel.java)
+ *
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * The distinct rows of encoded columns, each with the number of instances
+ * it stands for: duplicates are found by hashing the rows into an open-addressing
+ * table of row positions (linear probing), and rowOf maps every instance back
+ * to its distinct row. Counting the distinct rows with their weights gives the
+ * same counts as counting all instances, and classifying them once each gives
+ * the predictions of all instances, so both shrink by the compression ratio.
+ */
+
+public final class DistinctRows {
+
+    final int size;  // number of distinct rows
+    final int[][] cols;  // value position of each attribute of each distinct row, -1 if missing
+    final int[] labelCol;  // label position of each distinct row, null if the label is not part of the rows
+    final double[] weights;  // number of instances of each distinct row
+    final int[] rowOf;  // distinct row of each instance
+
+    private DistinctRows(int size, int[][] cols, int[] labelCol, double[] weights, int[] rowOf) {
+        this.size= size;
+        this.cols= cols;
+        this.labelCol= labelCol;
+        this.weights= weights;
+        this.rowOf= rowOf;
+    }
+
+    /**
+     * collapse the first n instances of encoded columns into their distinct rows
+     * @param labelCol label of each instance, part of the row; null to compare the attributes only (for scoring)
+     */
+    public static DistinctRows of(int[][] cols, int[] labelCol, int n) {
+        int d= cols.length;
+
+        // String-style hash of each row, computed column by column
+        int[] hash= new int[n];
+        for (int a=0;a<d;a++) {
+            int[] col= cols[a];
+            for (int r=0;r<n;r++) { hash[r]= 31*hash[r] + col[r]; }
+        }
+        if (labelCol!=null) {
+            for (int r=0;r<n;r++) { hash[r]= 31*hash[r] + labelCol[r]; }
+        }
+
+        int capacity= Integer.highestOneBit(Math.max(1, n)*2)*2;  // load factor at most 1/2
+        int mask= capacity-1;
+        int[] slots= new int[capacity];  // distinct row+1 hashed to each slot, 0 if empty
+        int[] first= new int[Math.min(n, 1024)];  // first instance of each distinct row
+        int[] rowOf= new int[n];
+        double[] weights= new double[first.length];
+        int size= 0;
+        for (int r=0;r<n;r++) {
+            int slot= mix(hash[r]) & mask, k;
+            while ((k= slots[slot])!=0 && !(hash[first[k-1]]==hash[r] && sameRow(cols, labelCol, first[k-1], r))) {
+                slot= (slot+1) & mask;
+            }
+            if (k==0) {
+                if (size==first.length) {
+                    first= Arrays.copyOf(first, Math.min(n, size*2));
+                    weights= Arrays.copyOf(weights, first.length);
+                }
+                first[size]= r;
+                k= ++size;
+                slots[slot]= k;
+            }
+            rowOf[r]= k-1;
+            weights[k-1]++;
+        }
+
+        int[][] distinct= new int[d][size];
+        for (int a=0;a<d;a++) {
+            for (int k=0;k<size;k++) { distinct[a][k]= cols[a][first[k]]; }
+        }
+        int[] labels= null;
+        if (labelCol!=null) {
+            labels= new int[size];
+            for (int k=0;k<size;k++) { labels[k]= labelCol[first[k]]; }
+        }
+        return new DistinctRows(size, distinct, labels, Arrays.copyOf(weights, size), rowOf);
+    }
+
+    /** returns the number of distinct rows */
+    public int size() { return size; }
+
+    /** returns the number of instances */
+    public int instances() { return rowOf.length; }
+
+    /** returns true if instances r and s have the same values (and labels, if given) */
+    private static boolean sameRow(int[][] cols, int[] labelCol, int r, int s) {
+        if (labelCol!=null && labelCol[r]!=labelCol[s]) { return false; }
+        for (int[] col: cols) {
+            if (col[r]!=col[s]) { return false; }
+        }
+        return true;
+    }
+
+    /** spreads the high bits of a hash over the low ones, which select the slot */
+    private static int mix(int h) {
+        h*= 0x9E3779B9;
+        return h ^ (h>>>16);
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * FeatureSelection.java (with NaiveBayes.java and TAN.java)
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Selects the attributes a classifier is trained on, from the counts of a
+ * single pass over the training set:
+ * top-k:     the k attributes with the highest I(X_i; Y)
+ * threshold: the attributes with I(X_i; Y) >= a minimum
+ * mRMR:      k attributes chosen greedily by relevance I(X_i; Y) minus their mean
+ *            redundancy I(X_i; X_j) with the attributes already chosen
+ *            (needs the pairwise counts)
+ * Mutual information is in bits and uses the unsmoothed counts.
+ */
+
+public class FeatureSelection {
+
+    private static final int TOP_K= 0, THRESHOLD= 1, MRMR= 2;
+
+    private final int criterion;
+    private final int k;
+    private final double minInfo;
+
+    private FeatureSelection(int criterion, int k, double minInfo) {
+        this.criterion= criterion;
+        this.k= k;
+        this.minInfo= minInfo;
+    }
+
+    /** keep the k attributes with the highest mutual information with the class */
+    public static FeatureSelection topK(int k) {
+        if (k<1) { throw new IllegalArgumentException("at least one attribute must be kept"); }
+        return new FeatureSelection(TOP_K, k, 0.0);
+    }
+
+    /** keep the attributes whose mutual information with the class is at least minInfo bits */
+    public static FeatureSelection threshold(double minInfo) {
+        return new FeatureSelection(THRESHOLD, 0, minInfo);
+    }
+
+    /** keep k attributes by minimum redundancy, maximum relevance */
+    public static FeatureSelection mrmr(int k) {
+        if (k<1) { throw new IllegalArgumentException("at least one attribute must be kept"); }
+        return new FeatureSelection(MRMR, k, 0.0);
+    }
+
+    /** returns true if the selection needs the pairwise counts */
+    public boolean needsPairs() { return criterion==MRMR; }
+
+    /**
+     * select attributes
+     * @param counts counts of the training set, with the pairwise counts if needsPairs()
+     * @return the positions of the selected attributes, in increasing order (at least one)
+     */
+    public int[] select(CountTable counts) {
+        double[] relevance= mutualInfo(counts);
+        int d= relevance.length;
+        Integer[] order= new Integer[d];
+        for (int a=0;a<d;a++) { order[a]= a; }
+        Arrays.sort(order, (x, y) -> Double.compare(relevance[y], relevance[x]));
+
+        List<Integer> selected= new ArrayList<Integer>();
+        if (criterion==TOP_K) {
+            for (int r=0;r<Math.min(k, d);r++) { selected.add(order[r]); }
+        } else if (criterion==THRESHOLD) {
+            for (int a=0;a<d;a++) {
+                if (relevance[a]>=minInfo) { selected.add(a); }
+            }
+            if (selected.isEmpty() && d>0) { selected.add(order[0]); }
+        } else {
+            selected= mrmr(counts, relevance);
+        }
+
+        int[] res= new int[selected.size()];
+        for (int s=0;s<res.length;s++) { res[s]= selected.get(s); }
+        Arrays.sort(res);
+        return res;
+    }
+
+    /** greedy mRMR: the redundancy of each candidate is accumulated as attributes are chosen */
+    private List<Integer> mrmr(CountTable counts, double[] relevance) {
+        int d= relevance.length;
+        double[] redundancy= new double[d];
+        boolean[] chosen= new boolean[d];
+        List<Integer> selected= new ArrayList<Integer>();
+        while (selected.size()<Math.min(k, d)) {
+            int best= -1;
+            double bestScore= Double.NEGATIVE_INFINITY;
+            for (int a=0;a<d;a++) {
+                if (chosen[a]) { continue; }
+                double score= relevance[a] - (selected.isEmpty() ? 0.0 : redundancy[a]/selected.size());
+                if (score>bestScore) {
+                    best= a;
+                    bestScore= score;
+                }
+            }
+            chosen[best]= true;
+            selected.add(best);
+            for (int a=0;a<d;a++) {
+                if (!chosen[a]) { redundancy[a]+= pairInfo(counts, a, best); }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * returns I(X_i; Y) for each attribute
+     * = sum_{v,l} p(v,l)*log( p(v,l) / (p(v)*p(l)) )
+     */
+    public static double[] mutualInfo(CountTable counts) {
+        int d= counts.arity.length;
+        double total= counts.total();
+        double[] res= new double[d];
+        for (int i=0;i<d;i++) {
+            double info= 0.0;
+            for (int v=0;v<counts.arity[i];v++) {
+                double nv= 0.0;
+                for (int l=0;l<counts.labelSize;l++) { nv+= counts.count(l,i,v); }
+                for (int l=0;l<counts.labelSize;l++) {
+                    double nvl= counts.count(l,i,v);
+                    if (nvl>0) { info+= nvl/total*log2(nvl*total/(nv*counts.count(l))); }
+                }
+            }
+            res[i]= info;
+        }
+        return res;
+    }
+
+    /** returns I(X_i; X_j), from the pairwise counts summed over the labels */
+    static double pairInfo(CountTable counts, int i, int j) {
+        int ai= counts.arity[i], aj= counts.arity[j];
+        double[] joint= new double[ai*aj], ni= new double[ai], nj= new double[aj];
+        double total= 0.0;
+        for (int l=0;l<counts.labelSize;l++) {
+            for (int vi=0;vi<ai;vi++) {
+                for (int vj=0;vj<aj;vj++) {
+                    double n= counts.count(l,i,vi,j,vj);
+                    joint[vi*aj + vj]+= n;
+                    ni[vi]+= n;
+                    nj[vj]+= n;
+                    total+= n;
+                }
+            }
+        }
+        double info= 0.0;
+        for (int vi=0;vi<ai;vi++) {
+            for (int vj=0;vj<aj;vj++) {
+                double n= joint[vi*aj + vj];
+                if (n>0) { info+= n/total*log2(n*total/(ni[vi]*nj[vj])); }
+            }
+        }
+        return info;
+    }
+
+    /** returns the columns of the selected attributes */
+    static int[][] project(int[][] cols, int[] selected) {
+        int[][] res= new int[selected.length][];
+        for (int s=0;s<selected.length;s++) { res[s]= cols[selected[s]]; }
+        return res;
+    }
+
+    /** returns the arity of the selected attributes */
+    static int[] project(int[] arity, int[] selected) {
+        int[] res= new int[selected.length];
+        for (int s=0;s<selected.length;s++) { res[s]= arity[selected[s]]; }
+        return res;
+    }
+
+    private static double log2(double x) { return Math.log(x)/LN2; }
+
+    private static final double LN2= Math.log(2);
+
+}
@@ -0,0 +1,183 @@
+/**
+ * GaussianStats.java (with NaiveBayes.java)
+ *
+ */
+
+
+/**
+ * This class stores the sufficient statistics of the numeric attributes
+ * of a labelled data set: for each label and numeric attribute the number,
+ * mean and sum of squared deviations from the mean (M2) of the known values,
+ * from which the class-conditional mean and variance of a Gaussian density are derived.
+ * Values are added with Welford's update, and statistics are merged and subtracted
+ * with Chan's pairwise formula, so the variance keeps its precision when the
+ * values have a large mean and a small spread (timestamps, identifiers), where
+ * the sum of squares minus the squared sum cancels out.
+ */
+
+public class GaussianStats {
+
+    static final double MIN_VARIANCE= 1e-6;  // keeps a constant attribute from giving an infinite density
+
+    final int labelSize;  // number of class labels
+    final boolean[] numeric;  // whether each attribute is numeric
+    final double[] n, mean, m2;  // count, mean and M2 of attribute a for label l at l*numeric.length + a
+
+    /**
+     * create empty statistics for the numeric attributes of header
+     */
+    GaussianStats(ArffDataSet header) {
+        int d= header.attributes.size();
+        labelSize= header.labels.size();
+        numeric= new boolean[d];
+        for (int a=0;a<d;a++) { numeric[a]= header.isNumeric(a); }
+        n= new double[labelSize*d];
+        mean= new double[labelSize*d];
+        m2= new double[labelSize*d];
+    }
+
+    /**
+     * returns the statistics of the numeric attributes of a dataset
+     */
+    public static GaussianStats count(ArffDataSet dataset) {
+        GaussianStats stats= new GaussianStats(dataset);
+        stats.add(dataset, false);
+        return stats;
+    }
+
+    /** returns a copy of the statistics */
+    GaussianStats copy() {
+        return new GaussianStats(labelSize, numeric, n.clone(), mean.clone(), m2.clone());
+    }
+
+    private GaussianStats(int labelSize, boolean[] numeric, double[] n, double[] mean, double[] m2) {
+        this.labelSize= labelSize;
+        this.numeric= numeric;
+        this.n= n;
+        this.mean= mean;
+        this.m2= m2;
+    }
+
+    /**
+     * add the instances of a dataset with the same attributes, or remove them
+     * (they must have been added before), in place
+     */
+    public void add(ArffDataSet dataset, boolean remove) {
+        add(dataset, null, remove);
+    }
+
+    /**
+     * add the instances of a dataset at the given positions (all of them if null),
+     * or remove them (they must have been added before), in place
+     */
+    public void add(ArffDataSet dataset, int[] positions, boolean remove) {
+        int d= numeric.length;
+        int[] labelCol= dataset.getLabelColumn();
+        int size= positions==null ? dataset.size() : positions.length;
+        for (int a=0;a<d;a++) {
+            if (!numeric[a]) { continue; }
+            double[] col= dataset.getNumericColumn(a);
+            for (int k=0;k<size;k++) {
+                int inst= positions==null ? k : positions[k];
+                int l= labelCol[inst];
+                if (l<0 || Double.isNaN(col[inst])) { continue; }
+                if (remove) { remove(l*d + a, col[inst]); }
+                else { add(l*d + a, col[inst]); }
+            }
+        }
+    }
+
+    /**
+     * add a single instance
+     * @param values value of each numeric attribute (NaN if missing)
+     * @param l label position, the instance is skipped if negative
+     */
+    public void add(double[] values, int l) {
+        if (l<0) { return; }
+        int d= numeric.length;
+        for (int a=0;a<d;a++) {
+            if (!numeric[a] || Double.isNaN(values[a])) { continue; }
+            add(l*d + a, values[a]);
+        }
+    }
+
+    /** aux method to add value x to the statistics at k (Welford) */
+    private void add(int k, double x) {
+        n[k]++;
+        double delta= x-mean[k];
+        mean[k]+= delta/n[k];
+        m2[k]+= delta*(x-mean[k]);
+    }
+
+    /** aux method to remove value x, added before, from the statistics at k (Welford backwards) */
+    private void remove(int k, double x) {
+        if (n[k]<=1) {
+            n[k]= 0;
+            mean[k]= 0;
+            m2[k]= 0;
+            return;
+        }
+        double previous= mean[k];
+        n[k]--;
+        mean[k]= previous + (previous-x)/n[k];
+        m2[k]= Math.max(0.0, m2[k] - (x-mean[k])*(x-previous));
+    }
+
+    /**
+     * add all statistics of other to these (Chan et al.):
+     * M2 = M2_a + M2_b + (mean_b-mean_a)^2 * n_a*n_b/n
+     */
+    public void merge(GaussianStats other) {
+        for (int k=0;k<n.length;k++) {
+            double nb= other.n[k];
+            if (nb==0) { continue; }
+            double na= n[k], total= na+nb, delta= other.mean[k]-mean[k];
+            n[k]= total;
+            mean[k]+= delta*nb/total;
+            m2[k]+= other.m2[k] + delta*delta*na*nb/total;
+        }
+    }
+
+    /**
+     * remove all statistics of other, which must only cover instances added to these:
+     * the merge formula solved for the statistics of the remaining instances
+     */
+    public void subtract(GaussianStats other) {
+        for (int k=0;k<n.length;k++) {
+            double nb= other.n[k];
+            if (nb==0) { continue; }
+            double total= n[k], na= total-nb;
+            if (na<=0) {
+                n[k]= 0;
+                mean[k]= 0;
+                m2[k]= 0;
+                continue;
+            }
+            double meanA= (total*mean[k] - nb*other.mean[k])/na, delta= other.mean[k]-meanA;
+            n[k]= na;
+            mean[k]= meanA;
+            m2[k]= Math.max(0.0, m2[k] - other.m2[k] - delta*delta*na*nb/total);
+        }
+    }
+
+    /**
+     * returns the Gaussian parameters of each attribute, null for the non-numeric ones:
+     * the mean for label l at 2*l and the variance at 2*l+1
+     */
+    public double[][] parameters() {
+        int d= numeric.length;
+        double[][] params= new double[d][];
+        for (int a=0;a<d;a++) {
+            if (!numeric[a]) { continue; }
+            params[a]= new double[2*labelSize];
+            for (int l=0;l<labelSize;l++) {
+                double count= n[l*d + a];
+                double variance= count>1 ? m2[l*d + a]/count : 1.0;
+                params[a][2*l]= count>0 ? mean[l*d + a] : 0.0;
+                params[a][2*l+1]= Math.max(MIN_VARIANCE, variance);
+            }
+        }
+        return params;
+    }
+
+}
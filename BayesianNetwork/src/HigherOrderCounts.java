@@ -0,0 +1,164 @@
+/**
+ * HigherOrderCounts.java (with KDB.java and PackedKeyTable.java)
+ *
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Counts N(Y=l, X_parents=v_parents, X_i=v_i) for a chosen parent set of each
+ * attribute, e.g. the k parents of a KDB. A tuple is packed into a long with a
+ * mixed radix, key= ((l*arity[p1] + v_p1)*arity[p2] + v_p2 ...)*arity[i] + v_i,
+ * and counted in a PackedKeyTable per attribute, so only the tuples that occur
+ * take space, however many parents an attribute has. All attributes are counted
+ * in the same pass; instances with a missing value in a tuple don't count for it.
+ */
+
+public final class HigherOrderCounts {
+
+    final int labelSize;  // number of class labels
+    final int[] arity;  // number of values of each attribute
+    final int[][] parents;  // parent attributes of each attribute, besides the class
+    final PackedKeyTable[] tables;  // counts of the tuples of each attribute
+
+    /**
+     * create an empty store
+     * @param parents parent attributes of each attribute, besides the class
+     * @throws IllegalArgumentException if the tuples of an attribute don't fit in a long
+     */
+    HigherOrderCounts(int labelSize, int[] arity, int[][] parents) {
+        this.labelSize= labelSize;
+        this.arity= arity.clone();
+        this.parents= parents;
+        tables= new PackedKeyTable[arity.length];
+        for (int i=0;i<arity.length;i++) {
+            double tuples= labelSize*(double) arity[i];
+            for (int p: parents[i]) { tuples*= arity[p]; }
+            if (tuples>=Long.MAX_VALUE) {
+                throw new IllegalArgumentException("the tuples of attribute "+i+" don't fit in a long key");
+            }
+            tables[i]= new PackedKeyTable((int) Math.min(1024, tuples));
+        }
+    }
+
+    /** create an empty store with the same layout as other */
+    HigherOrderCounts(HigherOrderCounts other) {
+        this(other.labelSize, other.arity, other.parents);
+    }
+
+    /** returns the number of parent tuples of attribute i with a label: key= l*radix + the parent part */
+    long parentRadix(int i) {
+        long radix= 1;
+        for (int p: parents[i]) { radix*= arity[p]; }
+        return radix;
+    }
+
+    /**
+     * add the instances [from,to) of the encoded columns
+     * instances with an undeclared label are skipped
+     */
+    public void add(int[][] cols, int[] labelCol, int from, int to) {
+        int d= arity.length;
+        for (int inst=from;inst<to;inst++) {
+            int l= labelCol[inst];
+            if (l<0) { continue; }
+            attributes:
+            for (int i=0;i<d;i++) {
+                int vi= cols[i][inst];
+                if (vi<0) { continue; }
+                long key= l;
+                for (int p: parents[i]) {
+                    int vp= cols[p][inst];
+                    if (vp<0) { continue attributes; }
+                    key= key*arity[p] + vp;
+                }
+                tables[i].add(key*arity[i] + vi, 1.0);
+            }
+        }
+    }
+
+    /** add the counts of other, which has the same layout */
+    public void merge(HigherOrderCounts other) {
+        for (int i=0;i<tables.length;i++) { tables[i].merge(other.tables[i]); }
+    }
+
+    /** returns the number of distinct tuples counted */
+    public long tuples() {
+        long tuples= 0;
+        for (PackedKeyTable table: tables) { tuples+= table.size(); }
+        return tuples;
+    }
+
+    /** returns the number of bytes taken by the tables */
+    public long memoryBytes() {
+        long bytes= 0;
+        for (PackedKeyTable table: tables) { bytes+= table.memoryBytes(); }
+        return bytes;
+    }
+
+    /**
+     * count the first n instances of encoded columns for the given parent sets, in one pass:
+     * with parallelism>1 the instances are split into one contiguous range per thread,
+     * each counted into its own store on a ForkJoinPool, and the stores are merged pairwise
+     * @param arity number of values of each column
+     * @param parents parent attributes of each attribute, besides the class
+     */
+    public static HigherOrderCounts count(int[][] cols, int[] labelCol, int n, int labelSize, int[] arity,
+                                          int[][] parents, int parallelism) {
+        HigherOrderCounts store= new HigherOrderCounts(labelSize, arity, parents);
+        if (parallelism<=1) {
+            store.add(cols, labelCol, 0, n);
+            return store;
+        }
+        // one contiguous range, and so one store, per thread
+        int parts= Math.max(1, Math.min(parallelism, n));
+        ForkJoinPool pool= new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new CountTask(store, cols, labelCol, n, parts, 0, parts));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * counts the ranges [lo,hi) of the n instances split into parts contiguous ranges:
+     * a range is counted into its own store (the first one into layout), and
+     * the stores of two halves are merged (tree reduction)
+     */
+    private static class CountTask extends RecursiveTask<HigherOrderCounts> {
+        private static final long serialVersionUID= 1L;
+        private final HigherOrderCounts layout;
+        private final int[][] cols;
+        private final int[] labelCol;
+        private final int n, parts, lo, hi;
+
+        CountTask(HigherOrderCounts layout, int[][] cols, int[] labelCol, int n, int parts, int lo, int hi) {
+            this.layout= layout;
+            this.cols= cols;
+            this.labelCol= labelCol;
+            this.n= n;
+            this.parts= parts;
+            this.lo= lo;
+            this.hi= hi;
+        }
+
+        @Override
+        protected HigherOrderCounts compute() {
+            if (hi-lo==1) {
+                HigherOrderCounts shard= lo==0 ? layout : new HigherOrderCounts(layout);
+                shard.add(cols, labelCol, (int) ((long) lo*n/parts), (int) ((long) hi*n/parts));
+                return shard;
+            }
+            int mid= (lo+hi)>>>1;
+            CountTask left= new CountTask(layout, cols, labelCol, n, parts, lo, mid);
+            left.fork();
+            HigherOrderCounts right= new CountTask(layout, cols, labelCol, n, parts, mid, hi).compute();
+            HigherOrderCounts res= left.join();
+            res.merge(right);
+            return res;
+        }
+    }
+
+}
@@ -0,0 +1,370 @@
+/**
+ * InferenceKernel.java (with TrainedModel.java)
+ *
+ */
+
+
+/**
+ * Scores encoded instances with a trained model in log space.
+ * The conditional probability tables are turned into one flat array of
+ * log-probabilities, laid out so that the entries of all labels for a given
+ * (attribute value, parent value) are contiguous:
+ * logTable[offset[e] + (parentVal*attrSize[e] + attrVal)*labelSize + l]
+ * Scoring an instance is then a sum of lookups per label, followed by a
+ * log-sum-exp normalization, so wide instances do not underflow.
+ * Numeric attributes modelled by a Gaussian density add
+ * -ln(2*pi*var)/2 - (x-mean)^2/(2*var) to the score of each label.
+ * Attributes left out by feature selection have an empty table and are skipped.
+ * Nothing is allocated per instance: results go to caller-provided arrays.
+ * Blocks of columns are scored by VectorScorer (SIMD lanes over the rows,
+ * with the JDK Vector API) when it is on the classpath and the JVM runs with
+ * --add-modules jdk.incubator.vector, unless -Dbayesnet.vector=false;
+ * otherwise, or with Gaussian attributes, by the scalar loops.
+ * The kernel is immutable and can be shared between threads.
+ */
+
+public final class InferenceKernel {
+
+    /** scores blocks of encoded columns, see predict(int[][], int, int, int[], double[]) */
+    interface BlockBackend {
+        void predict(int[][] cols, int from, int to, int[] predictions, double[] posteriors);
+    }
+
+    private static final boolean VECTOR= !"false".equals(System.getProperty("bayesnet.vector"));
+
+    final int labelSize;  // number of class labels
+    final int[] attrSize;  // number of values of each attribute
+    final int[] parentAttribute;  // parent of each attribute, -1 if only the class
+    final int[] active;  // attributes that have a table
+    final double[] logPrior;  // log P(Y=l)
+    final int[] offset;  // start of each attribute in logTable
+    final double[] logTable;  // log P(X_e | X_parent, Y)
+    private final int[][] children;  // attributes whose parent is each attribute
+    private final double[] defaultScore;  // log P(Y=l) + sum of log P(X_e=0 | X_parent=0, Y=l), for sparse instances
+    private final int[] gaussAttr;  // Gaussian numeric attributes
+    private final double[] gaussMean;  // mean of Gaussian attribute g for label l at g*labelSize + l
+    private final double[] gaussScale;  // 1/(2*variance)
+    private final double[] gaussLogNorm;  // -ln(2*pi*variance)/2
+    private final BlockBackend vector;  // SIMD scoring of blocks, null if unavailable
+
+    InferenceKernel(TrainedModel model) {
+        labelSize= model.probLabel.length;
+        attrSize= model.attrSize.clone();
+        parentAttribute= model.parentAttribute.clone();
+        logPrior= new double[labelSize];
+        for (int l=0;l<labelSize;l++) { logPrior[l]= Math.log(model.probLabel[l]); }
+
+        int d= attrSize.length;
+        offset= new int[d];
+        int size= 0, num= 0;
+        for (int e=0;e<d;e++) {
+            offset[e]= size;
+            size+= model.probTable[e].length;
+            if (model.probTable[e].length>0) { num++; }
+        }
+        active= new int[num];
+        num= 0;
+        for (int e=0;e<d;e++) {
+            if (model.probTable[e].length>0) { active[num++]= e; }
+        }
+        logTable= new double[size];
+        for (int e: active) {
+            int parSize= parentAttribute[e]<0 ? 1 : attrSize[parentAttribute[e]];
+            double[] table= model.probTable[e];
+            for (int l=0;l<labelSize;l++) {
+                for (int pv=0;pv<parSize;pv++) {
+                    for (int v=0;v<attrSize[e];v++) {
+                        logTable[offset[e] + (pv*attrSize[e] + v)*labelSize + l]= Math.log(table[(l*parSize + pv)*attrSize[e] + v]);
+                    }
+                }
+            }
+        }
+
+        int[] childNum= new int[d];
+        for (int e=0;e<d;e++) {
+            if (parentAttribute[e]>=0) { childNum[parentAttribute[e]]++; }
+        }
+        children= new int[d][];
+        for (int e=0;e<d;e++) { children[e]= new int[childNum[e]]; }
+        for (int e=0;e<d;e++) {
+            if (parentAttribute[e]>=0) { children[parentAttribute[e]][--childNum[parentAttribute[e]]]= e; }
+        }
+        defaultScore= logPrior.clone();
+        for (int e: active) {
+            int base= base(e, 0, 0);
+            if (base<0 || attrSize[e]==0) { continue; }
+            for (int l=0;l<labelSize;l++) { defaultScore[l]+= logTable[base+l]; }
+        }
+
+        int g= 0;
+        for (int e=0;e<d;e++) {
+            if (model.gaussian[e]!=null) { g++; }
+        }
+        gaussAttr= new int[g];
+        gaussMean= new double[g*labelSize];
+        gaussScale= new double[g*labelSize];
+        gaussLogNorm= new double[g*labelSize];
+        g= 0;
+        for (int e=0;e<d;e++) {
+            double[] params= model.gaussian[e];
+            if (params==null) { continue; }
+            gaussAttr[g]= e;
+            for (int l=0;l<labelSize;l++) {
+                double variance= params[2*l+1];
+                gaussMean[g*labelSize + l]= params[2*l];
+                gaussScale[g*labelSize + l]= 1.0/(2.0*variance);
+                gaussLogNorm[g*labelSize + l]= -0.5*Math.log(2.0*Math.PI*variance);
+            }
+            g++;
+        }
+        vector= VECTOR ? vectorBackend(this) : null;
+    }
+
+    /** returns a VectorScorer for the kernel, null if the class or the Vector API is missing */
+    private static BlockBackend vectorBackend(InferenceKernel kernel) {
+        try {
+            return (BlockBackend) Class.forName("VectorScorer").getDeclaredConstructor(InferenceKernel.class).newInstance(kernel);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /** returns true if blocks of columns are scored with the Vector API */
+    public boolean isVectorized() { return vector!=null; }
+
+    /** returns the number of class labels */
+    public int labelSize() { return labelSize; }
+
+    /** returns an estimate of the memory (bytes) held by the kernel */
+    public long memoryBytes() {
+        long bytes= arrayBytes(logTable.length, 8) + arrayBytes(logPrior.length, 8) + arrayBytes(defaultScore.length, 8)
+                    + arrayBytes(attrSize.length, 4) + arrayBytes(parentAttribute.length, 4) + arrayBytes(active.length, 4)
+                    + arrayBytes(offset.length, 4) + arrayBytes(children.length, 8)
+                    + arrayBytes(gaussAttr.length, 4) + 3*arrayBytes(gaussMean.length, 8);
+        for (int[] c: children) { bytes+= arrayBytes(c.length, 4); }
+        return bytes;
+    }
+
+    /** returns the size (bytes) of an array with its header */
+    static long arrayBytes(int length, int elementSize) { return 16 + (long) length*elementSize; }
+
+    /** returns the number of attributes */
+    public int attributeSize() { return attrSize.length; }
+
+    /**
+     * classify an encoded instance
+     * @param row value position of each attribute, -1 for values that carry no evidence
+     * @param posterior receives P(Y=l | row) for each label
+     * @return position of the most likely label
+     */
+    public int predict(int[] row, double[] posterior) {
+        return predict(row, null, posterior);
+    }
+
+    /**
+     * classify an encoded instance with the values of its numeric attributes
+     * @param numeric value of each Gaussian numeric attribute (NaN if missing), may be null
+     * @see #predict(int[], double[])
+     */
+    public int predict(int[] row, double[] numeric, double[] posterior) {
+        System.arraycopy(logPrior, 0, posterior, 0, labelSize);
+        score(row, numeric, posterior, 0);
+        return normalize(posterior, 0);
+    }
+
+    /** adds the log-probabilities of the attribute values of an instance to the scores at [out, out+labelSize) */
+    private void score(int[] row, double[] numeric, double[] scores, int out) {
+        for (int e: active) {
+            int base= base(e, row[e], parentAttribute[e]<0 ? 0 : row[parentAttribute[e]]);
+            if (base<0) { continue; }
+            for (int l=0;l<labelSize;l++) { scores[out+l]+= logTable[base+l]; }
+        }
+        if (numeric==null) { return; }
+        for (int g=0;g<gaussAttr.length;g++) {
+            double x= numeric[gaussAttr[g]];
+            if (Double.isNaN(x)) { continue; }
+            for (int l=0;l<labelSize;l++) { scores[out+l]+= logDensity(g, l, x); }
+        }
+    }
+
+    /** returns ln N(x; mean, variance) of Gaussian attribute g for label l */
+    private double logDensity(int g, int l, double x) {
+        double dev= x-gaussMean[g*labelSize + l];
+        return gaussLogNorm[g*labelSize + l] - dev*dev*gaussScale[g*labelSize + l];
+    }
+
+    /**
+     * classify the instances [from,to) of encoded columns
+     * @param cols value position of each instance, one column per attribute
+     * @param predictions receives the most likely label of instance r at r-from
+     * @param posteriors receives P(Y=l | instance r) at (r-from)*labelSize + l
+     */
+    public void predict(int[][] cols, int from, int to, int[] predictions, double[] posteriors) {
+        predict(cols, null, from, to, predictions, posteriors);
+    }
+
+    /**
+     * classify the instances [from,to) of encoded columns with the values of their numeric attributes
+     * @param numCols value of each instance for the Gaussian numeric attributes (NaN if missing), may be null
+     * @see #predict(int[][], int, int, int[], double[])
+     */
+    public void predict(int[][] cols, double[][] numCols, int from, int to, int[] predictions, double[] posteriors) {
+        if (vector!=null && (numCols==null || gaussAttr.length==0)) {
+            vector.predict(cols, from, to, predictions, posteriors);
+            return;
+        }
+        predictScalar(cols, numCols, from, to, predictions, posteriors);
+    }
+
+    /**
+     * classify the instances [from,to) of encoded columns with the scalar loops,
+     * whether or not the Vector API is available
+     * @see #predict(int[][], double[][], int, int, int[], double[])
+     */
+    void predictScalar(int[][] cols, double[][] numCols, int from, int to, int[] predictions, double[] posteriors) {
+        for (int r=from;r<to;r++) {
+            System.arraycopy(logPrior, 0, posteriors, (r-from)*labelSize, labelSize);
+        }
+        // attribute by attribute, so that each column is read sequentially
+        for (int e: active) {
+            int[] col= cols[e], parCol= parentAttribute[e]<0 ? null : cols[parentAttribute[e]];
+            for (int r=from;r<to;r++) {
+                int base= base(e, col[r], parCol==null ? 0 : parCol[r]);
+                if (base<0) { continue; }
+                int out= (r-from)*labelSize;
+                for (int l=0;l<labelSize;l++) { posteriors[out+l]+= logTable[base+l]; }
+            }
+        }
+        for (int g=0;g<gaussAttr.length && numCols!=null;g++) {
+            double[] col= numCols[gaussAttr[g]];
+            if (col==null) { continue; }
+            for (int r=from;r<to;r++) {
+                if (Double.isNaN(col[r])) { continue; }
+                int out= (r-from)*labelSize;
+                for (int l=0;l<labelSize;l++) { posteriors[out+l]+= logDensity(g, l, col[r]); }
+            }
+        }
+        for (int r=from;r<to;r++) {
+            predictions[r-from]= normalize(posteriors, (r-from)*labelSize);
+        }
+    }
+
+    /**
+     * returns the most likely label of an encoded instance,
+     * without any buffer: the score of each label is summed in turn
+     * (Gaussian numeric attributes carry no evidence here)
+     * @param row value position of each attribute, -1 for values that carry no evidence
+     */
+    public int predict(int[] row) {
+        int best= 0;
+        double bestScore= Double.NEGATIVE_INFINITY;
+        for (int l=0;l<labelSize;l++) {
+            double score= logPrior[l];
+            for (int e: active) {
+                int base= base(e, row[e], parentAttribute[e]<0 ? 0 : row[parentAttribute[e]]);
+                if (base>=0) { score+= logTable[base+l]; }
+            }
+            if (score>bestScore) {
+                best= l;
+                bestScore= score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * classify encoded instances given as rows
+     * @param rows value position of each attribute for each instance
+     * @param predictions receives the most likely label of each instance
+     * @param posteriors receives P(Y=l | rows[r]) at r*labelSize + l
+     */
+    public void predict(int[][] rows, int[] predictions, double[] posteriors) {
+        predict(rows, rows.length, predictions, posteriors);
+    }
+
+    /**
+     * classify the first count rows
+     * @see #predict(int[][], int[], double[])
+     */
+    public void predict(int[][] rows, int count, int[] predictions, double[] posteriors) {
+        predict(rows, null, count, predictions, posteriors);
+    }
+
+    /**
+     * classify the first count rows with the values of their numeric attributes
+     * @param numerics value of each Gaussian numeric attribute of each row, may be null (or hold null rows)
+     * @see #predict(int[][], int[], double[])
+     */
+    public void predict(int[][] rows, double[][] numerics, int count, int[] predictions, double[] posteriors) {
+        for (int r=0;r<count;r++) {
+            int out= r*labelSize;
+            System.arraycopy(logPrior, 0, posteriors, out, labelSize);
+            score(rows[r], numerics==null ? null : numerics[r], posteriors, out);
+            predictions[r]= normalize(posteriors, out);
+        }
+    }
+
+    /**
+     * classify instance r of a sparse dataset, where unlisted attributes take their
+     * default value (position 0): starting from the score of the all-default instance,
+     * only the terms of the listed attributes and of their children are replaced,
+     * so the cost is O(nnz) for Naive Bayes
+     * @param scratch attributes.size() zeros, left as zeros on return
+     * @param posterior receives P(Y=l | instance) for each label
+     * @return position of the most likely label
+     */
+    public int predictSparse(int[] rowStart, int[] attrIndex, int[] valueIndex, int r, int[] scratch, double[] posterior) {
+        System.arraycopy(defaultScore, 0, posterior, 0, labelSize);
+        int from= rowStart[r], to= rowStart[r+1];
+        for (int p=from;p<to;p++) { scratch[attrIndex[p]]= valueIndex[p]; }
+        for (int p=from;p<to;p++) {
+            int e= attrIndex[p];
+            if (hasTable(e)) { rescore(e, scratch, posterior); }
+            for (int c: children[e]) {
+                if (scratch[c]==0) { rescore(c, scratch, posterior); }
+            }
+        }
+        for (int p=from;p<to;p++) { scratch[attrIndex[p]]= 0; }
+        return normalize(posterior, 0);
+    }
+
+    /** replaces the default term of attribute e by the term of its value in row */
+    private void rescore(int e, int[] row, double[] scores) {
+        int def= base(e, 0, 0);
+        for (int l=0;l<labelSize;l++) { scores[l]-= logTable[def+l]; }
+        int base= base(e, row[e], parentAttribute[e]<0 ? 0 : row[parentAttribute[e]]);
+        if (base<0) { return; }
+        for (int l=0;l<labelSize;l++) { scores[l]+= logTable[base+l]; }
+    }
+
+    /** returns true if attribute e has a table */
+    private boolean hasTable(int e) {
+        int end= e+1<offset.length ? offset[e+1] : logTable.length;
+        return end>offset[e];
+    }
+
+    /** returns the start of the label entries for a value and its parent value, -1 if either is undeclared */
+    private int base(int e, int val, int parVal) {
+        if (val<0 || parVal<0) { return -1; }
+        return offset[e] + (parVal*attrSize[e] + val)*labelSize;
+    }
+
+    /**
+     * turns the log scores at [out, out+labelSize) into probabilities (log-sum-exp)
+     * @return the label with the highest score
+     */
+    private int normalize(double[] scores, int out) {
+        int best= 0;
+        for (int l=1;l<labelSize;l++) {
+            if (scores[out+l]>scores[out+best]) { best= l; }
+        }
+        double max= scores[out+best], sum= 0.0;
+        for (int l=0;l<labelSize;l++) {
+            scores[out+l]= Math.exp(scores[out+l]-max);
+            sum+= scores[out+l];
+        }
+        for (int l=0;l<labelSize;l++) { scores[out+l]/= sum; }
+        return best;
+    }
+
+}
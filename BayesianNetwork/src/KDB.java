@@ -0,0 +1,358 @@
+/**
+ * KDB.java (with BayesianNetwork.java and HigherOrderCounts.java)
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * k-Dependence Bayesian classifier: like TAN, each attribute depends on the class,
+ * but it may have up to k attribute parents instead of one.
+ * The attributes are ranked by their mutual information with the class I(X_i; Y),
+ * and each one takes as parents the k attributes ranked before it with the highest
+ * conditional mutual information I(X_i; X_j | Y), the weight matrix of TAN:
+ * P(y, x) ~ P(y) * prod_i P(x_i | y, x_parents(i))
+ * The pairwise counts give the structure; the tuples (Y, X_parents, X_i) of the chosen
+ * parent sets are then counted in one more pass into a HigherOrderCounts, whose
+ * size grows with the tuples that occur rather than with the product of the arities.
+ * The smoothed probabilities are kept as logs, a block of all the labels for each tuple
+ * (X_parents, X_i) seen, found by a PackedKeyTable under the packed key without the label:
+ * scoring an instance takes O(d*k) multiplications, one lookup per attribute and O(d)
+ * additions per label, and allocates nothing. An attribute whose parents are missing
+ * falls back to P(x_i | y).
+ */
+
+public class KDB {
+
+    static final int DEFAULT_K= 2;  // usual number of attribute parents
+
+    private ArffDataSet header;  // relation, labels and attributes of the training set
+    private int labelSize;  // number of class labels
+    private int[] attrSize;  // number of values of each attribute
+    private Discretizer discretizer;  // bins of the numeric attributes, null if there are none
+
+    private int k= DEFAULT_K;  // maximum number of attribute parents of each attribute
+    private int bins= Discretizer.DEFAULT_BINS;  // number of bins of numeric attributes
+    private int parallelism= 1;  // number of threads used for counting and for scoring blocks
+    private Smoothing smoothing= Smoothing.LAPLACE;  // pseudo-counts added to the counts
+
+    private int[][] parents;  // attribute parents of each attribute, besides the class
+    private double[] logPrior;  // log P(Y=l)
+    private int[] valueOffset;  // start of attribute i in logCond
+    private double[] logCond;  // log P(X_i=v | Y=l) at l*values + valueOffset[i] + v, when a parent is missing
+    private double[] logUniform;  // log 1/attrSize[i], for the parent tuples never seen
+    private PackedKeyTable[] childIndex;  // slot of each (X_parents, X_i) seen with some label, key tuple*attrSize[i] + v
+    private double[][] logChild;  // log P(X_i=v | Y=l, X_parents) at slot*labelSize + l
+    private PackedKeyTable[] parentIndex;  // slot of each parent tuple seen, for the values X_i never seen with it
+    private double[][] logUnseen;  // log P(X_i=v | Y=l, X_parents) of the values never seen at slot*labelSize + l
+
+    /** constructor */
+    KDB() {}
+
+    /** set the maximum number of attribute parents of each attribute (1 is a TAN-like model, 0 Naive Bayes) */
+    public void setK(int k) { this.k= Math.max(0, k); }
+
+    /** set the number of equal-frequency bins of numeric attributes */
+    public void setBins(int bins) { this.bins= Math.max(1, bins); }
+
+    /** set the number of threads used to count the training instances and to score blocks */
+    public void setParallelism(int parallelism) { this.parallelism= Math.max(1, parallelism); }
+
+    /** set the smoothing of the probabilities (Laplace by default), before training */
+    public void setSmoothing(Smoothing smoothing) { this.smoothing= smoothing; }
+
+    /** train the KDB model with dataset
+     * @param dataset
+     */
+    public void train(ArffDataSet dataset) {
+        long start= System.nanoTime();
+        Discretizer discretizer= dataset.hasNumeric() ? Discretizer.fit(dataset, bins) : null;
+        int[][] cols= discretizer==null ? dataset.getColumns() : discretizer.apply(dataset);
+        int[] arity= discretizer==null ? dataset.getArity() : discretizer.arity(dataset);
+        int[] labelCol= dataset.getLabelColumn();
+        int n= dataset.size(), labels= dataset.labels.size();
+        CountTable counts= CountTable.count(cols, labelCol, n, labels, arity, true, parallelism);
+        if (Metrics.ENABLED) { Metrics.get().recordPhase(Metrics.COUNTING, System.nanoTime()-start); }
+
+        // the conditional mutual information of TAN, over the same pairwise counts
+        start= System.nanoTime();
+        double[][] weightMatrix= TAN.mutualInfo(counts, smoothing, null, parallelism);
+        if (Metrics.ENABLED) { Metrics.get().recordPhase(Metrics.MUTUAL_INFO, System.nanoTime()-start); }
+        int[][] parents= structure(FeatureSelection.mutualInfo(counts), weightMatrix, k);
+
+        start= System.nanoTime();
+        HigherOrderCounts tuples= HigherOrderCounts.count(cols, labelCol, n, labels, arity, parents, parallelism);
+        if (Metrics.ENABLED) { Metrics.get().recordPhase(Metrics.COUNTING, System.nanoTime()-start); }
+        train(dataset, counts, tuples, discretizer);
+    }
+
+    /**
+     * returns the attribute parents of each attribute: attributes are taken by decreasing
+     * information about the class, each with the k attributes taken before it that have
+     * the highest information about it given the class
+     * @param classInfo I(X_i; Y) of each attribute
+     * @param weightMatrix I(X_i; X_j | Y) of each pair of attributes
+     */
+    static int[][] structure(double[] classInfo, double[][] weightMatrix, int k) {
+        int d= classInfo.length;
+        Integer[] ranked= new Integer[d];
+        for (int i=0;i<d;i++) { ranked[i]= i; }
+        Arrays.sort(ranked, (a, b) -> Double.compare(classInfo[b], classInfo[a]));
+
+        int[][] parents= new int[d][];
+        for (int r=0;r<d;r++) {
+            int i= ranked[r];
+            Integer[] candidates= Arrays.copyOf(ranked, r);
+            Arrays.sort(candidates, (a, b) -> Double.compare(weightMatrix[i][b], weightMatrix[i][a]));
+            parents[i]= new int[Math.min(k, r)];
+            for (int p=0;p<parents[i].length;p++) { parents[i][p]= candidates[p]; }
+        }
+        return parents;
+    }
+
+    /** build the log tables from the pairwise counts and the counts of the parent tuples */
+    private void train(ArffDataSet header, CountTable counts, HigherOrderCounts tuples, Discretizer discretizer) {
+        long start= System.nanoTime();
+        this.header= header.copyHeader();
+        this.discretizer= discretizer;
+        labelSize= counts.labelSize;
+        attrSize= counts.arity;
+        parents= tuples.parents;
+        int d= attrSize.length;
+        double total= counts.total(), delta= smoothing.label();
+
+        logPrior= new double[labelSize];
+        for (int l=0;l<labelSize;l++) { logPrior[l]= Math.log((counts.count(l)+delta)/(total+labelSize*delta)); }
+
+        // Naive Bayes P(X_i | Y), for the instances missing a parent value
+        valueOffset= new int[d];
+        int values= 0;
+        for (int i=0;i<d;i++) {
+            valueOffset[i]= values;
+            values+= attrSize[i];
+        }
+        logCond= new double[labelSize*values];
+        for (int i=0;i<d;i++) {
+            double alpha= smoothing.attribute(i);
+            for (int l=0;l<labelSize;l++) {
+                double labelCount= 0;
+                for (int v=0;v<attrSize[i];v++) { labelCount+= counts.count(l,i,v); }
+                for (int v=0;v<attrSize[i];v++) {
+                    logCond[l*values + valueOffset[i] + v]= Math.log((counts.count(l,i,v)+alpha)/(labelCount+attrSize[i]*alpha));
+                }
+            }
+        }
+
+        // P(X_i | Y, X_parents) from the tuple counts, with all the labels of a tuple in a block
+        // so that scoring looks each tuple up once
+        logUniform= new double[d];
+        childIndex= new PackedKeyTable[d];
+        logChild= new double[d][];
+        parentIndex= new PackedKeyTable[d];
+        logUnseen= new double[d][];
+        for (int i=0;i<d;i++) {
+            double alpha= smoothing.attribute(i);
+            int a= Math.max(1, attrSize[i]);
+            long radix= tuples.parentRadix(i);
+            PackedKeyTable childCount= tuples.tables[i];
+
+            // N(Y, X_parents) summed over X_i, and the tuples without their label
+            PackedKeyTable parentCount= new PackedKeyTable(childCount.size()/a+1);
+            childIndex[i]= new PackedKeyTable(childCount.size());
+            parentIndex[i]= new PackedKeyTable(childCount.size()/a+1);
+            for (int slot=0;slot<childCount.capacity();slot++) {
+                long key= childCount.keys[slot];
+                if (key<0) { continue; }
+                parentCount.add(key/a, childCount.values[slot]);
+                childIndex[i].put(key%(radix*a), 0);
+                parentIndex[i].put(key/a%radix, 0);
+            }
+
+            logChild[i]= new double[childIndex[i].capacity()*labelSize];
+            for (int slot=0;slot<childIndex[i].capacity();slot++) {
+                long key= childIndex[i].keys[slot];
+                if (key<0) { continue; }
+                for (int l=0;l<labelSize;l++) {
+                    double count= childCount.get(l*radix*a + key, 0);
+                    double parentTotal= parentCount.get(l*radix + key/a, 0);
+                    logChild[i][slot*labelSize + l]= Math.log((count+alpha)/(parentTotal+attrSize[i]*alpha));
+                }
+            }
+            logUnseen[i]= new double[parentIndex[i].capacity()*labelSize];
+            for (int slot=0;slot<parentIndex[i].capacity();slot++) {
+                long tuple= parentIndex[i].keys[slot];
+                if (tuple<0) { continue; }
+                for (int l=0;l<labelSize;l++) {
+                    double parentTotal= parentCount.get(l*radix + tuple, 0);
+                    logUnseen[i][slot*labelSize + l]= Math.log(alpha/(parentTotal+attrSize[i]*alpha));
+                }
+            }
+            logUniform[i]= -Math.log(attrSize[i]);
+        }
+        if (Metrics.ENABLED) { Metrics.get().recordPhase(Metrics.CPT, System.nanoTime()-start); }
+    }
+
+    /** returns the number of class labels */
+    public int labelSize() { return labelSize; }
+
+    /** returns the attribute parents of attribute i, besides the class */
+    public int[] parents(int i) { return parents[i].clone(); }
+
+    /** returns the number of bytes taken by the tables of the parent tuples */
+    public long memoryBytes() {
+        long bytes= 0;
+        for (int i=0;i<attrSize.length;i++) {
+            bytes+= childIndex[i].memoryBytes() + logChild[i].length*8L + parentIndex[i].memoryBytes() + logUnseen[i].length*8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * classify an encoded instance, without allocating
+     * @param row value position of each attribute, -1 for missing values (a trailing label is ignored)
+     * @param posterior receives P(Y=l | row) for each label
+     * @return the most likely label
+     */
+    public int predict(int[] row, double[] posterior) {
+        int d= attrSize.length, values= logCond.length/labelSize;
+        System.arraycopy(logPrior, 0, posterior, 0, labelSize);
+        attributes:
+        for (int i=0;i<d;i++) {
+            int vi= row[i];
+            if (vi<0) { continue; }
+            // the parent tuple, without the label
+            long tuple= 0;
+            for (int p: parents[i]) {
+                if (row[p]<0) {
+                    for (int l=0;l<labelSize;l++) { posterior[l]+= logCond[l*values + valueOffset[i] + vi]; }
+                    continue attributes;
+                }
+                tuple= tuple*attrSize[p] + row[p];
+            }
+            int slot= childIndex[i].find(tuple*attrSize[i] + vi);
+            if (slot>=0) {
+                double[] logProb= logChild[i];
+                int base= slot*labelSize;
+                for (int l=0;l<labelSize;l++) { posterior[l]+= logProb[base+l]; }
+            } else if ((slot= parentIndex[i].find(tuple))>=0) {
+                double[] logProb= logUnseen[i];
+                int base= slot*labelSize;
+                for (int l=0;l<labelSize;l++) { posterior[l]+= logProb[base+l]; }
+            } else {
+                for (int l=0;l<labelSize;l++) { posterior[l]+= logUniform[i]; }
+            }
+        }
+        return normalize(posterior);
+    }
+
+    /** turns the log scores of the labels into probabilities, returns the most likely label */
+    private int normalize(double[] posterior) {
+        int best= 0;
+        for (int l=1;l<labelSize;l++) {
+            if (posterior[l]>posterior[best]) { best= l; }
+        }
+        double max= posterior[best], sum= 0;
+        for (int l=0;l<labelSize;l++) {
+            posterior[l]= Math.exp(posterior[l]-max);
+            sum+= posterior[l];
+        }
+        for (int l=0;l<labelSize;l++) { posterior[l]/= sum; }
+        return best;
+    }
+
+    /**
+     * classify the instances [from,to) of encoded columns
+     * @param cols value position of each attribute for each instance
+     * @param predictions receives the most likely label of instance r at r-from
+     * @param posteriors receives P(Y=l | instance r) at (r-from)*labelSize + l
+     */
+    public void predict(int[][] cols, int from, int to, int[] predictions, double[] posteriors) {
+        int d= attrSize.length;
+        int[] row= new int[d];
+        double[] posterior= new double[labelSize];
+        for (int r=from;r<to;r++) {
+            for (int a=0;a<d;a++) { row[a]= cols[a][r]; }
+            predictions[r-from]= predict(row, posterior);
+            System.arraycopy(posterior, 0, posteriors, (r-from)*labelSize, labelSize);
+        }
+    }
+
+    /**
+     * classify the first n instances of encoded columns in blocks, on parallelism threads
+     * @see #predict(int[][], int, int, int[], double[])
+     */
+    public void predictAll(int[][] cols, int n, int[] predictions, double[] posteriors) {
+        int block= 1024;
+        if (parallelism<=1 || n<=block) {
+            predict(cols, 0, n, predictions, posteriors);
+            return;
+        }
+        List<Callable<Void>> tasks= new ArrayList<Callable<Void>>();
+        for (int from=0;from<n;from+=block) {
+            final int start= from, end= Math.min(n, from+block);
+            tasks.add(() -> {
+                int[] blockPredictions= new int[end-start];
+                double[] blockPosteriors= new double[(end-start)*labelSize];
+                predict(cols, start, end, blockPredictions, blockPosteriors);
+                System.arraycopy(blockPredictions, 0, predictions, start, end-start);
+                System.arraycopy(blockPosteriors, 0, posteriors, start*labelSize, (end-start)*labelSize);
+                return null;
+            });
+        }
+        ForkJoinPool pool= new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> future: pool.invokeAll(tasks)) { future.get(); }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while scoring", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to score", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** print each attribute with its parents */
+    public void printStructure() {
+        for (int i=0;i<parents.length;i++) {
+            StringBuilder line= new StringBuilder(header.attributes.get(i).toString());
+            for (int p: parents[i]) { line.append(' ').append(header.attributes.get(p)); }
+            System.out.println(line.append(" class"));
+        }
+        System.out.println();
+    }
+
+    /**
+     * classify the test set,
+     * print the structure, the predicted label, actual label and probability of each instance and the accuracy
+     * @param testset
+     */
+    public void classify(ArffDataSet testset) {
+        printStructure();
+        int n= testset.size();
+        int[][] cols= discretizer==null ? testset.getColumns() : discretizer.apply(testset);
+        int[] labelCol= testset.getLabelColumn();
+        int[] predictions= new int[n];
+        double[] posteriors= new double[n*labelSize];
+        long start= System.nanoTime();
+        predictAll(cols, n, predictions, posteriors);
+        if (Metrics.ENABLED) { Metrics.get().recordScoring(n, System.nanoTime()-start); }
+
+        int correctNum= 0;
+        for (int inst=0;inst<n;inst++) {
+            int label= predictions[inst];
+            String actualLabel= labelCol[inst]<0 ? null : testset.labels.get(labelCol[inst]);
+            System.out.println(header.labels.get(label)+" "+actualLabel+" "+posteriors[inst*labelSize + label]);
+            if (label==labelCol[inst]) { correctNum++; }
+        }
+        System.out.println("\nAccuracy= "+correctNum+"/"+n);
+    }
+
+}
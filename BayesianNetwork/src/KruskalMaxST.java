@@ -0,0 +1,107 @@
+/**
+ * KruskalMaxST.java (with TAN.java)
+ *
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * Kruskal's algorithm on the attribute graph thresholded at a minimum weight.
+ * Only edges above the threshold are sorted, so it suits wide datasets whose
+ * mutual information graph is sparse once the weak edges are dropped.
+ * The result is a forest: each component is rooted at its smallest attribute,
+ * which then only depends on the class label.
+ */
+
+public class KruskalMaxST implements MaxSpanningTree {
+
+    private final double threshold;  // edges with weight <= threshold are dropped
+
+    /** keep every edge with a positive weight */
+    public KruskalMaxST() { this(0.0); }
+
+    public KruskalMaxST(double threshold) { this.threshold= threshold; }
+
+    public int[] parents(double[][] weightMatrix) {
+        int d= weightMatrix.length;
+
+        // collect the edges above the threshold, i<j
+        int edgeNum= 0;
+        int[] edgeI= new int[16], edgeJ= new int[16];
+        for (int i=0;i<d;i++) {
+            for (int j=i+1;j<d;j++) {
+                if (weightMatrix[i][j]<=threshold) { continue; }
+                if (edgeNum==edgeI.length) {
+                    edgeI= Arrays.copyOf(edgeI, edgeNum*2);
+                    edgeJ= Arrays.copyOf(edgeJ, edgeNum*2);
+                }
+                edgeI[edgeNum]= i;
+                edgeJ[edgeNum]= j;
+                edgeNum++;
+            }
+        }
+
+        // sort the edges by decreasing weight
+        Integer[] order= new Integer[edgeNum];
+        for (int e=0;e<edgeNum;e++) { order[e]= e; }
+        final int[] ei= edgeI, ej= edgeJ;
+        Arrays.sort(order, (a,b) -> Double.compare(weightMatrix[ei[b]][ej[b]], weightMatrix[ei[a]][ej[a]]));
+
+        // add edges that join two components (union-find with path halving)
+        int[] root= new int[d];
+        for (int v=0;v<d;v++) { root[v]= v; }
+        int[] adjStart= new int[d+1], treeI= new int[Math.max(0,d-1)], treeJ= new int[Math.max(0,d-1)];
+        int treeNum= 0;
+        for (int k=0;k<edgeNum && treeNum<d-1;k++) {
+            int i= ei[order[k]], j= ej[order[k]];
+            int ri= find(root,i), rj= find(root,j);
+            if (ri==rj) { continue; }
+            root[Math.max(ri,rj)]= Math.min(ri,rj);
+            treeI[treeNum]= i;
+            treeJ[treeNum]= j;
+            treeNum++;
+            adjStart[i+1]++;
+            adjStart[j+1]++;
+        }
+
+        // adjacency lists of the forest
+        for (int v=0;v<d;v++) { adjStart[v+1]+= adjStart[v]; }
+        int[] adj= new int[2*treeNum], fill= Arrays.copyOf(adjStart, d);
+        for (int t=0;t<treeNum;t++) {
+            adj[fill[treeI[t]]++]= treeJ[t];
+            adj[fill[treeJ[t]]++]= treeI[t];
+        }
+
+        // orient each component away from its smallest attribute
+        int[] parent= new int[d], queue= new int[d];
+        boolean[] visited= new boolean[d];
+        for (int r=0;r<d;r++) {
+            if (visited[r]) { continue; }
+            parent[r]= -1;
+            visited[r]= true;
+            int head= 0, tail= 0;
+            queue[tail++]= r;
+            while (head<tail) {
+                int v= queue[head++];
+                for (int k=adjStart[v];k<adjStart[v+1];k++) {
+                    int u= adj[k];
+                    if (visited[u]) { continue; }
+                    visited[u]= true;
+                    parent[u]= v;
+                    queue[tail++]= u;
+                }
+            }
+        }
+        return parent;
+    }
+
+    private static int find(int[] root, int v) {
+        while (root[v]!=v) {
+            root[v]= root[root[v]];
+            v= root[v];
+        }
+        return v;
+    }
+
+}
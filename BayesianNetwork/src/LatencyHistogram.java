@@ -0,0 +1,89 @@
+/**
+ * LatencyHistogram.java (with Metrics.java)
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Records latencies (ns) in log-linear buckets, as HdrHistogram does with
+ * two significant digits: values below 256 have a bucket each, above that
+ * each power of two is split into 128 buckets, so a recorded value is off
+ * by less than 1%. Recording is a single atomic increment and never
+ * allocates; any number of threads can record concurrently.
+ */
+
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS= 8;  // values below 2^SUB_BITS are exact
+    private static final int HALF= 1<<(SUB_BITS-1);  // buckets per power of two above that
+
+    private final AtomicLongArray buckets= new AtomicLongArray((1<<SUB_BITS) + (64-SUB_BITS)*HALF);
+    private final LongAdder count= new LongAdder();
+    private final LongAdder sum= new LongAdder();
+    private final LongAccumulator max= new LongAccumulator(Math::max, 0L);
+
+    /** record a latency in ns, negative values are recorded as 0 */
+    public void record(long nanos) {
+        long v= Math.max(0L, nanos);
+        buckets.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /** returns the number of recorded values */
+    public long count() { return count.sum(); }
+
+    /** returns the mean of the recorded values, 0 if none */
+    public double mean() {
+        long n= count.sum();
+        return n==0 ? 0.0 : (double) sum.sum()/n;
+    }
+
+    /** returns the largest recorded value */
+    public long max() { return max.get(); }
+
+    /**
+     * returns the value below which a fraction q of the recorded values fall
+     * (the upper bound of its bucket), 0 if none
+     */
+    public long percentile(double q) {
+        long n= count.sum();
+        if (n==0) { return 0L; }
+        long target= Math.max(1L, (long) Math.ceil(q*n));
+        long seen= 0;
+        for (int i=0;i<buckets.length();i++) {
+            seen+= buckets.get(i);
+            if (seen>=target) { return Math.min(upperBound(i), max()); }
+        }
+        return max();
+    }
+
+    /** forget all recorded values */
+    public void reset() {
+        for (int i=0;i<buckets.length();i++) { buckets.set(i, 0L); }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /** returns the bucket of a non-negative value */
+    static int index(long v) {
+        int shift= Math.max(0, 64-Long.numberOfLeadingZeros(v)-SUB_BITS);
+        if (shift==0) { return (int) v; }
+        return (1<<SUB_BITS) + (shift-1)*HALF + (int) (v>>>shift) - HALF;
+    }
+
+    /** returns the largest value of bucket i */
+    static long upperBound(int i) {
+        if (i<(1<<SUB_BITS)) { return i; }
+        int shift= (i-(1<<SUB_BITS))/HALF + 1;
+        long sub= (i-(1<<SUB_BITS))%HALF + HALF;
+        return ((sub+1)<<shift) - 1;
+    }
+
+}
@@ -0,0 +1,251 @@
+/**
+ * MappedArffLoader.java (with ArffParser.java)
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Loads the data section of an ARFF file on several threads.
+ * The header is read up to the @data line, the rest of the file is
+ * split into chunks that end on a line boundary, and each chunk is
+ * memory-mapped and decoded on its own thread straight into encoded columns.
+ * The chunks are appended to the dataset in file order, so the instances
+ * keep the order of the file. Real/numeric values are parsed into numeric columns.
+ * Files with string attributes are read by ArffParser instead; sparse instances
+ * are not supported.
+ */
+
+public class MappedArffLoader {
+
+    private static final int MAX_CHUNK= 1<<30;  // a mapping must stay below 2GB
+
+    private MappedArffLoader() { }
+
+    /**
+     * load an ARFF file
+     * @param file path of the ARFF file
+     * @param parallelism number of threads decoding the data section
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static ArffDataSet load(String file, int parallelism) throws IOException {
+        long start= System.nanoTime();
+        try (FileChannel channel= FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+
+            // read the header and find where the data section starts
+            long[] dataStart= new long[1];
+            ArffDataSet dataSet;
+            try (InputStream in= new BufferedInputStream(new FileInputStream(file), 1<<16)) {
+                String header= readHeader(in, dataStart);
+                dataSet= new ArffReader(new BufferedReader(new StringReader(header))).header();
+            }
+            if (dataSet.hasString()) {
+                return new ArffParser().createSets(file);  // string attributes keep their raw values
+            }
+
+            // split the data section into chunks that end after a newline
+            long size= channel.size();
+            parallelism= Math.max(1, parallelism);
+            long chunkSize= Math.max(1<<20, Math.min(MAX_CHUNK, (size-dataStart[0])/(parallelism*4L)+1));
+            List<Long> bounds= new ArrayList<Long>();
+            bounds.add(dataStart[0]);
+            long pos= dataStart[0];
+            while (pos<size) {
+                pos= nextLine(channel, Math.min(size, pos+chunkSize), size);
+                bounds.add(pos);
+            }
+
+            // decode the chunks in parallel
+            List<Callable<Chunk>> tasks= new ArrayList<Callable<Chunk>>();
+            for (int c=0;c+1<bounds.size();c++) {
+                final long from= bounds.get(c), to= bounds.get(c+1);
+                tasks.add(() -> new Chunk(dataSet, channel.map(FileChannel.MapMode.READ_ONLY, from, to-from), from));
+            }
+            ForkJoinPool pool= new ForkJoinPool(parallelism);
+            try {
+                for (Future<Chunk> future: pool.invokeAll(tasks)) {
+                    Chunk chunk= future.get();
+                    dataSet.addEncodedInstances(chunk.cols, chunk.numCols, chunk.labelCol, chunk.rows);
+                    for (int a=0;a<chunk.unseen.length;a++) { dataSet.countUnseen(a, chunk.unseen[a]); }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while loading "+file, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) { throw (IOException) e.getCause(); }
+                throw new IOException("failed to load "+file, e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            dataSet.reportUnseen(file);
+            if (Metrics.ENABLED) { Metrics.get().recordParse(dataSet.size(), size, System.nanoTime()-start); }
+            return dataSet;
+        }
+    }
+
+    /**
+     * reads the header lines up to and including @data
+     * @param dataStart receives the byte offset of the first data line
+     */
+    private static String readHeader(InputStream in, long[] dataStart) throws IOException {
+        ByteArrayOutputStream header= new ByteArrayOutputStream();
+        ByteArrayOutputStream line= new ByteArrayOutputStream();
+        long offset= 0;
+        while (true) {
+            int b= in.read();
+            if (b>=0) {
+                offset++;
+                line.write(b);
+                if (b!='\n') { continue; }
+            } else if (line.size()==0) {
+                break;
+            }
+            // a whole line, or the last one when the file does not end with a newline
+            line.writeTo(header);
+            String text= new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+            line.reset();
+            if (text.regionMatches(true, 0, "@data", 0, 5)) {
+                dataStart[0]= offset;  // the end of the file if there is no data
+                return new String(header.toByteArray(), StandardCharsets.UTF_8);
+            }
+            if (b<0) { break; }
+        }
+        throw new IOException("no @data section");
+    }
+
+    /** returns the offset just after the first newline at or after pos, or size */
+    private static long nextLine(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf= ByteBuffer.allocate(8192);
+        while (pos<size) {
+            buf.clear();
+            int n= channel.read(buf, pos);
+            if (n<=0) { break; }
+            for (int k=0;k<n;k++) {
+                if (buf.get(k)=='\n') { return pos+k+1; }
+            }
+            pos+= n;
+        }
+        return size;
+    }
+
+    /**
+     * the encoded instances of one chunk of the data section
+     */
+    private static class Chunk {
+        int rows= 0;
+        int[][] cols;
+        double[][] numCols;  // values of the numeric attributes, null for the other ones
+        int[] labelCol;
+        long[] unseen;  // undeclared values of each attribute, then of the label
+
+        Chunk(ArffDataSet header, MappedByteBuffer buf, long offset) throws IOException {
+            int d= header.attributes.size();
+            int capacity= 1024;
+            cols= new int[d][capacity];
+            numCols= new double[d][];
+            for (int a=0;a<d;a++) {
+                if (header.isNumeric(a)) { numCols[a]= new double[capacity]; }
+            }
+            labelCol= new int[capacity];
+            unseen= new long[d+1];
+
+            int[] fieldStart= new int[d+1], fieldEnd= new int[d+1];
+            int len= buf.limit(), pos= 0;
+            while (pos<len) {
+                // find the end of the line
+                int lineStart= pos, lineEnd= pos;
+                while (lineEnd<len && buf.get(lineEnd)!='\n') { lineEnd++; }
+                pos= lineEnd+1;
+
+                // skip comments and blank lines
+                int first= lineStart;
+                while (first<lineEnd && (buf.get(first)&0xff)<=' ') { first++; }
+                if (first==lineEnd || buf.get(first)=='%') { continue; }
+                if (buf.get(first)=='{') {
+                    throw new IOException("byte "+(offset+lineStart)+": sparse instances are not supported, use ArffParser");
+                }
+
+                // split into fields, the label is the last one
+                int fieldNum= 0, start= first;
+                while (true) {
+                    int end= start;
+                    while (end<lineEnd && buf.get(end)!=',') { end++; }
+                    if (fieldNum<=d) {
+                        fieldStart[fieldNum]= start;
+                        fieldEnd[fieldNum]= end;
+                    } else {
+                        fieldStart[d]= start;
+                        fieldEnd[d]= end;
+                    }
+                    fieldNum++;
+                    if (end>=lineEnd) { break; }
+                    start= end+1;
+                }
+                if (fieldNum<d+1) {
+                    throw new IOException("byte "+(offset+lineStart)+": instance doesn't contain enough attributes");
+                }
+
+                if (rows==capacity) {
+                    capacity*= 2;
+                    labelCol= Arrays.copyOf(labelCol, capacity);
+                    for (int a=0;a<d;a++) {
+                        cols[a]= Arrays.copyOf(cols[a], capacity);
+                        if (numCols[a]!=null) { numCols[a]= Arrays.copyOf(numCols[a], capacity); }
+                    }
+                }
+                for (int a=0;a<=d;a++) { trim(buf, fieldStart, fieldEnd, a); }
+                for (int a=0;a<d;a++) {
+                    if (numCols[a]!=null) {
+                        cols[a][rows]= -1;
+                        numCols[a][rows]= ArffDataSet.parseNumeric(ValueDictionary.decode(buf, fieldStart[a], fieldEnd[a]));
+                        continue;
+                    }
+                    cols[a][rows]= encode(header, buf, fieldStart[a], fieldEnd[a], a);
+                }
+                labelCol[rows]= encode(header, buf, fieldStart[d], fieldEnd[d], d);
+                rows++;
+            }
+        }
+
+        /** narrows the bounds of field f to its value, without surrounding whitespace and quotation marks */
+        private static void trim(MappedByteBuffer buf, int[] fieldStart, int[] fieldEnd, int f) {
+            int start= fieldStart[f], end= fieldEnd[f];
+            while (start<end && (buf.get(start)&0xff)<=' ') { start++; }
+            while (end>start && (buf.get(end-1)&0xff)<=' ') { end--; }
+            if (end-start>=2) {
+                byte first= buf.get(start), last= buf.get(end-1);
+                if ((first=='\'' && last=='\'') || (first=='"' && last=='"')) { start++; end--; }
+            }
+            fieldStart[f]= start;
+            fieldEnd[f]= end;
+        }
+
+        /** returns the position of a value of attribute a (the label when a is d), counting undeclared values */
+        private int encode(ArffDataSet header, MappedByteBuffer buf, int start, int end, int a) {
+            int code= header.dictionary(a).get(buf, start, end);
+            if (code<0 && !ValueDictionary.isMissing(buf, start, end)) { unseen[a]++; }
+            return code;
+        }
+    }
+
+}
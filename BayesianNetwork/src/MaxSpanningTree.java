@@ -0,0 +1,22 @@
+/**
+ * MaxSpanningTree.java (with TAN.java)
+ *
+ */
+
+
+/**
+ * Finds the maximum spanning tree (or forest) of the attribute graph
+ * whose edge weights are given by the symmetric weight matrix.
+ * The tree is returned as the parent of each attribute, 
+ * -1 for attributes that only depend on the class label.
+ */
+
+public interface MaxSpanningTree {
+
+    /**
+     * @param weightMatrix symmetric edge weights, the diagonal is ignored
+     * @return int[] parent attribute of each attribute, -1 for a root
+     */
+    int[] parents(double[][] weightMatrix);
+
+}
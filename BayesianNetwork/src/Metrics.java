@@ -0,0 +1,179 @@
+/**
+ * Metrics.java (with MetricsMBean.java and LatencyHistogram.java)
+ *
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * Process-wide instrumentation of parsing, training and scoring:
+ * parse:    rows and bytes read, and the time of each complete read pass
+ * training: time spent in each phase (TAN.PHASES, Naive Bayes, AODE and KDB record counting and cpt)
+ * model:    estimated memory footprint of the last model built or loaded
+ * scoring:  rows scored and scoring time, and a latency histogram of single
+ *           instances (a predict call, or submit to result for BatchScorer)
+ *
+ * Metrics are off unless the JVM is started with -Dbayesnet.metrics=true
+ * or -Dbayesnet.metrics.json=file (which also writes the metrics as JSON
+ * to that file on exit). ENABLED is a constant, so when metrics are off
+ * the JIT drops the instrumented branches altogether. When on, the metrics
+ * are registered as the MBean bayesnet:type=Metrics.
+ */
+
+public final class Metrics implements MetricsMBean {
+
+    static final boolean ENABLED= Boolean.getBoolean("bayesnet.metrics") || System.getProperty("bayesnet.metrics.json")!=null;
+
+    static final int COUNTING= 0, MUTUAL_INFO= 1, SPANNING_TREE= 2, CPT= 3;  // positions of TAN.PHASES
+
+    private static final Metrics INSTANCE= new Metrics();
+
+    static {
+        if (ENABLED) { INSTANCE.register(); }
+    }
+
+    private final LongAdder parsedRows= new LongAdder(), parsedBytes= new LongAdder(), parseNanos= new LongAdder();
+    private final LongAdder[] phaseNanos= new LongAdder[TAN.PHASES.length];
+    private volatile long modelBytes= 0;
+    private final LongAdder scoredRows= new LongAdder(), scoreNanos= new LongAdder();
+    private final LatencyHistogram latency= new LatencyHistogram();
+
+    private Metrics() {
+        for (int p=0;p<phaseNanos.length;p++) { phaseNanos[p]= new LongAdder(); }
+    }
+
+    /** returns the process-wide metrics */
+    public static Metrics get() { return INSTANCE; }
+
+    /** registers the MBean and, if requested, the JSON dump on exit */
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("bayesnet:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("metrics: cannot register the MBean: "+e.getMessage());
+        }
+        String file= System.getProperty("bayesnet.metrics.json");
+        if (file!=null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    writeJson(file);
+                } catch (IOException e) {
+                    System.err.println("metrics: cannot write "+file+": "+e.getMessage());
+                }
+            }, "metrics-dump"));
+        }
+    }
+
+    /**
+     * record a complete read pass
+     * @param rows number of instances read
+     * @param bytes number of bytes (or characters) read
+     * @param nanos time of the pass
+     */
+    public void recordParse(long rows, long bytes, long nanos) {
+        parsedRows.add(rows);
+        parsedBytes.add(bytes);
+        parseNanos.add(nanos);
+    }
+
+    /** record the time of a training phase (COUNTING, MUTUAL_INFO, SPANNING_TREE or CPT) */
+    public void recordPhase(int phase, long nanos) {
+        phaseNanos[phase].add(nanos);
+    }
+
+    /** record the estimated memory footprint of a model */
+    public void recordModel(long bytes) { modelBytes= bytes; }
+
+    /** record the scoring of rows instances */
+    public void recordScoring(long rows, long nanos) {
+        scoredRows.add(rows);
+        scoreNanos.add(nanos);
+    }
+
+    /** record the latency of a single instance */
+    public void recordLatency(long nanos) { latency.record(nanos); }
+
+    /** returns the latency histogram of single instances */
+    public LatencyHistogram latency() { return latency; }
+
+    public long getParsedRows() { return parsedRows.sum(); }
+    public long getParsedBytes() { return parsedBytes.sum(); }
+    public double getParseRowsPerSecond() { return rate(parsedRows, parseNanos); }
+    public double getParseBytesPerSecond() { return rate(parsedBytes, parseNanos); }
+
+    public double getCountingMillis() { return phaseNanos[COUNTING].sum()/1e6; }
+    public double getMutualInfoMillis() { return phaseNanos[MUTUAL_INFO].sum()/1e6; }
+    public double getSpanningTreeMillis() { return phaseNanos[SPANNING_TREE].sum()/1e6; }
+    public double getCptMillis() { return phaseNanos[CPT].sum()/1e6; }
+
+    public long getModelBytes() { return modelBytes; }
+
+    public long getScoredRows() { return scoredRows.sum(); }
+    public double getScoreRowsPerSecond() { return rate(scoredRows, scoreNanos); }
+    public long getLatencyCount() { return latency.count(); }
+    public double getLatencyMeanMicros() { return latency.mean()/1e3; }
+    public double getLatencyP50Micros() { return latency.percentile(0.5)/1e3; }
+    public double getLatencyP99Micros() { return latency.percentile(0.99)/1e3; }
+    public double getLatencyP999Micros() { return latency.percentile(0.999)/1e3; }
+    public double getLatencyMaxMicros() { return latency.max()/1e3; }
+
+    /** returns count per second of nanos, 0 if no time was recorded */
+    private static double rate(LongAdder count, LongAdder nanos) {
+        long ns= nanos.sum();
+        return ns==0 ? 0.0 : count.sum()*1e9/ns;
+    }
+
+    /** returns the metrics as a JSON object */
+    public String toJson() {
+        StringBuilder sb= new StringBuilder("{\n");
+        sb.append("  \"parse\": {\"rows\": ").append(getParsedRows())
+          .append(", \"bytes\": ").append(getParsedBytes())
+          .append(", \"rowsPerSecond\": ").append(number(getParseRowsPerSecond()))
+          .append(", \"bytesPerSecond\": ").append(number(getParseBytesPerSecond())).append("},\n");
+        sb.append("  \"training\": {\"countingMs\": ").append(number(getCountingMillis()))
+          .append(", \"mutualInfoMs\": ").append(number(getMutualInfoMillis()))
+          .append(", \"spanningTreeMs\": ").append(number(getSpanningTreeMillis()))
+          .append(", \"cptMs\": ").append(number(getCptMillis())).append("},\n");
+        sb.append("  \"model\": {\"bytes\": ").append(getModelBytes()).append("},\n");
+        sb.append("  \"scoring\": {\"rows\": ").append(getScoredRows())
+          .append(", \"rowsPerSecond\": ").append(number(getScoreRowsPerSecond()))
+          .append(", \"latencyMicros\": {\"count\": ").append(getLatencyCount())
+          .append(", \"mean\": ").append(number(getLatencyMeanMicros()))
+          .append(", \"p50\": ").append(number(getLatencyP50Micros()))
+          .append(", \"p99\": ").append(number(getLatencyP99Micros()))
+          .append(", \"p99.9\": ").append(number(getLatencyP999Micros()))
+          .append(", \"max\": ").append(number(getLatencyMaxMicros())).append("}}\n");
+        return sb.append("}\n").toString();
+    }
+
+    private static String number(double x) { return String.format(Locale.ROOT, "%.3f", x); }
+
+    /** write the metrics as JSON to a file */
+    public void writeJson(String file) throws IOException {
+        try (Writer out= new FileWriter(file)) {
+            out.write(toJson());
+        }
+    }
+
+    /** forget everything recorded so far */
+    public void reset() {
+        parsedRows.reset();
+        parsedBytes.reset();
+        parseNanos.reset();
+        for (LongAdder nanos: phaseNanos) { nanos.reset(); }
+        modelBytes= 0;
+        scoredRows.reset();
+        scoreNanos.reset();
+        latency.reset();
+    }
+
+}
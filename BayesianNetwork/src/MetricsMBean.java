@@ -0,0 +1,38 @@
+/**
+ * MetricsMBean.java (with Metrics.java)
+ *
+ */
+
+
+/**
+ * JMX view of the metrics, registered as bayesnet:type=Metrics.
+ * Times are totals since the start (or the last reset).
+ */
+
+public interface MetricsMBean {
+
+    long getParsedRows();
+    long getParsedBytes();
+    double getParseRowsPerSecond();
+    double getParseBytesPerSecond();
+
+    double getCountingMillis();
+    double getMutualInfoMillis();
+    double getSpanningTreeMillis();
+    double getCptMillis();
+
+    long getModelBytes();
+
+    long getScoredRows();
+    double getScoreRowsPerSecond();
+    long getLatencyCount();
+    double getLatencyMeanMicros();
+    double getLatencyP50Micros();
+    double getLatencyP99Micros();
+    double getLatencyP999Micros();
+    double getLatencyMaxMicros();
+
+    String toJson();
+    void reset();
+
+}
@@ -6,174 +6,344 @@
  * 
  */
 
-import java.util.List;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 
 public class NaiveBayes {
 
+	private ArffDataSet header; // relation, labels and attributes of the training set
 	private List<String> labels; // ordered list of class labels
 	private List<String> attributes; // ordered list of attributes
 	
 	private double instanceSize; // stores number of instances
 	private int labelSize; // stores number of class labels
+	private int[] attrSize; // stores number of values for each attribute
 	private double[] labelRec; // stores occurrence for each label
-	List<List<List<Double>>> occurRec; // stores occurrence for each attribute value of each class label
-	List<List<Instance>> labelInstances; // stores instances based on class label (for Cross-Validation)
+	private CountTable counts; // stores occurrence for each attribute value of each class label
+	private double[][] occurSum; // stores the sum of occurrence for each attribute of each class label
+	int[][] labelInstances; // stores instance positions based on class label (for Cross-Validation)
+	
+	private Smoothing smoothing= Smoothing.LAPLACE; // pseudo-counts added to the counts
+	private int parallelism= 1; // number of threads used for counting
+	private boolean aggregate= false; // collapse duplicate rows into weighted instances before counting and scoring
 	
-	private final double DELTA= 1.0; // add delta constant
+	private boolean gaussian= true; // numeric attributes are modelled by Gaussian densities, or discretized
+	private int bins= Discretizer.DEFAULT_BINS; // number of bins of discretized numeric attributes
+	private Discretizer discretizer; // bins of the numeric attributes when they are discretized
+	private GaussianStats gaussStats; // moments of the numeric attributes when they are Gaussian
 	
-	private List<Map<String,Integer>> mapAttrLoc; // stores the mapping of attribute value to location
-	private Map<String,Integer> mapLabelLoc; // stores the mapping of class label value to location
+	private FeatureSelection selection; // selects the attributes to train on, null to keep all of them
+	private int[] selected; // attributes kept by the selection, counts and tables follow this order; null if all
 	
 	private double[] probLabel; // stores smoothed probability for each class label
+	private boolean stale= false; // true when the counts changed since the probabilities were computed
 	
 	/** trivial constructor */
 	NaiveBayes() {} 
 	
+	/** set the number of threads used to count the training instances */
+	public void setParallelism(int parallelism) { this.parallelism= Math.max(1, parallelism); }
+	
+	/** set the smoothing of the probabilities (Laplace by default); a trained model
+	 * recomputes its probabilities from the counts the next time it is used */
+	public void setSmoothing(Smoothing smoothing) {
+		this.smoothing= smoothing;
+		if (counts!=null) { stale= true; }
+	}
+	
+	/** collapse duplicate rows into (row, weight) pairs before counting, and classify
+	 * each distinct test row once; pays off when the data repeats rows a lot */
+	public void setAggregation(boolean aggregate) { this.aggregate= aggregate; }
+	
+	/** model numeric attributes with a Gaussian density for each label (default), or discretize them */
+	public void setGaussian(boolean gaussian) { this.gaussian= gaussian; }
+	
+	/** set the number of equal-frequency bins of discretized numeric attributes */
+	public void setBins(int bins) { this.bins= Math.max(1, bins); }
+	
+	/** select the attributes to train on (in-memory datasets only), null to keep all of them */
+	public void setFeatureSelection(FeatureSelection selection) { this.selection= selection; }
+	
+	/** returns the counts of the last training */
+	CountTable getCounts() { return counts; }
+	
 	/** train the NB model with the dataset
 	 * @param dataset
 	 */
 	public void train(ArffDataSet dataset) {
+		long start= System.nanoTime();
+		if (selection!=null) {
+			trainSelected(dataset, start);
+		} else if (!dataset.hasNumeric()) {
+			CountTable counts= count(dataset.getColumns(), dataset.getLabelColumn(), dataset.size(), dataset.labels.size(), dataset.getArity(), false);
+			recordCounting(start);
+			train(dataset, counts);
+		} else if (gaussian) {
+			CountTable counts= count(dataset.getColumns(), dataset.getLabelColumn(), dataset.size(), dataset.labels.size(), dataset.getArity(), false);
+			GaussianStats gaussStats= GaussianStats.count(dataset);
+			recordCounting(start);
+			train(dataset, counts, null, gaussStats);
+		} else {
+			Discretizer discretizer= Discretizer.fit(dataset, bins);
+			CountTable counts= count(discretizer.apply(dataset), dataset.getLabelColumn(), dataset.size(), dataset.labels.size(), 
+				discretizer.arity(dataset), false);
+			recordCounting(start);
+			train(dataset, counts, discretizer, null);
+		}
 		
-		// initialize the variables
-		this.labels= dataset.labels;
-		this.attributes= dataset.attributes;
+		// create subsets of each label
+		labelInstances= dataset.getLabelInstances();
+	}
+	
+	/** count the dataset once to select the attributes, then train on their counts only */
+	private void trainSelected(ArffDataSet dataset, long start) {
+		if (dataset.hasNumeric() && gaussian) {
+			throw new IllegalStateException("feature selection needs discretized numeric attributes, see setGaussian(false)");
+		}
+		Discretizer discretizer= dataset.hasNumeric() ? Discretizer.fit(dataset, bins) : null;
+		int[][] cols= discretizer==null ? dataset.getColumns() : discretizer.apply(dataset);
+		int[] arity= discretizer==null ? dataset.getArity() : discretizer.arity(dataset);
+		CountTable all= count(cols, dataset.getLabelColumn(), dataset.size(), dataset.labels.size(), arity, selection.needsPairs());
+		int[] selected= selection.select(all);
+		CountTable counts= all.project(selected);
+		recordCounting(start);
+		train(dataset, counts, discretizer, null);
+		this.selected= selected;
+	}
+	
+	/** aux method to count the first n instances of encoded columns, collapsing duplicate rows first if aggregation is on */
+	private CountTable count(int[][] cols, int[] labelCol, int n, int labelSize, int[] arity, boolean pairs) {
+		return aggregate ? CountTable.countDistinct(cols, labelCol, n, labelSize, arity, pairs, parallelism)
+		                 : CountTable.count(cols, labelCol, n, labelSize, arity, pairs, parallelism);
+	}
+	
+	/** train the NB model with a sparse dataset, in O(nnz)
+	 * @param dataset
+	 */
+	public void train(SparseDataSet dataset) {
+		long start= System.nanoTime();
+		CountTable counts= CountTable.count(dataset, false);
+		recordCounting(start);
+		train(dataset.header, counts);
+		labelInstances= dataset.getLabelInstances();
+	}
+	
+	/** train the NB model in a single pass over an ARFF stream,
+	 * without keeping the instances in memory; discretized numeric attributes
+	 * take a second pass over a temporary file for long streams (see Discretizer.count)
+	 * @param reader
+	 */
+	public void train(ArffReader reader) throws IOException {
+		long start= System.nanoTime();
+		ArffDataSet header= reader.header();
+		if (!header.hasNumeric()) {
+			CountTable counts= CountTable.count(reader, false);
+			recordCounting(start);
+			train(header, counts);
+		} else if (gaussian) {
+			GaussianStats gaussStats= new GaussianStats(header);
+			CountTable counts= CountTable.count(reader, false, gaussStats);
+			recordCounting(start);
+			train(header, counts, null, gaussStats);
+		} else {
+			Discretizer[] fitted= new Discretizer[1];
+			CountTable counts= Discretizer.count(reader, bins, false, fitted);
+			recordCounting(start);
+			train(header, counts, fitted[0], null);
+		}
+		labelInstances= null;  // positions are not known when streaming
+	}
+	
+	/** aux method to record the time spent counting since start (see Metrics) */
+	private static void recordCounting(long start) {
+		if (Metrics.ENABLED) { Metrics.get().recordPhase(Metrics.COUNTING, System.nanoTime()-start); }
+	}
+	
+	/** train the NB model from the counts of a dataset
+	 * @param header labels and attributes of the dataset
+	 * @param counts occurrence of each attribute value of each class label
+	 */
+	public void train(ArffDataSet header, CountTable counts) {
+		train(header, counts, null, null);
+	}
+	
+	/** train the NB model from the counts of a dataset and the statistics of its numeric attributes
+	 * @param discretizer bins of the numeric attributes, if they are discretized in counts
+	 * @param gaussStats moments of the numeric attributes, if they are Gaussian
+	 */
+	void train(ArffDataSet header, CountTable counts, Discretizer discretizer, GaussianStats gaussStats) {
+		this.discretizer= discretizer;
+		this.gaussStats= gaussStats;
+		this.selected= null;
 		
-		mapAttrLoc= dataset.mapAttrLoc;
-		mapLabelLoc= new HashMap<String,Integer>();
+		// initialize the variables
+		this.header= header.copyHeader();
+		this.labels= header.labels;
+		this.attributes= header.attributes;
 		
 		labelSize= labels.size();
-		labelRec= new double[labelSize];
 		probLabel= new double[labelSize];
-		
-        // create subsets of each label
-		// create ArrayLists that store the number of each attribute value in each label
-		// record the total number and the number of entry in each label
-		labelInstances= new ArrayList<List<Instance>>();
-		occurRec = new ArrayList<List<List<Double>>>();
-		
-		// initialize occurRec and labelInstances
-		// for each class label
-		for (int l=0;l<labelSize;l++) {
-			List<Instance> instList= new ArrayList<Instance>();
-			labelInstances.add(instList);
-			mapLabelLoc.put(labels.get(l),l);
-			List<List<Double>> occurAttr = new ArrayList<List<Double>>();
-			// for each attribute
-			for (int a=0;a<attributes.size();a++) {
-				List<Double> occurAttrVal= new ArrayList<Double>();
-				// for each attribute value
-				for (int av=0; av<dataset.attributeValuesMap.get(attributes.get(a)).size();av++) {
-					occurAttrVal.add(0.0);
-				}
-				occurAttr.add(occurAttrVal);
-			}
-			occurRec.add(occurAttr);
-		}
+		attrSize= counts.arity;
 		
 		// check occurrence for each Instance
-		instanceSize= dataset.instances.size();
-		for (Instance inst: dataset.instances) {
-			
-			int labelNo= mapLabelLoc.get(inst.label);
-			
-			labelRec[labelNo]++;
-			labelInstances.get(labelNo).add(inst);
-			for (int a=0;a<inst.attributes.size();a++) {
-				String attr= inst.attributes.get(a);
-				int attrValNum= mapAttrLoc.get(a).get(attr);
-				double occurNum= occurRec.get(labelNo).get(a).get(attrValNum)+1.0;
-				occurRec.get(labelNo).get(a).set(attrValNum, occurNum);
-			}
+		this.counts= counts;
+		labelRec= counts.labelCount;
+		refresh();
+	}
+	
+	/** add the instances of a batch to the counts, without retraining over the previous data;
+	 * the probabilities are refreshed the next time the model is used
+	 * @param batch instances with the same labels and attributes as the training set
+	 */
+	public void update(ArffDataSet batch) {
+		countBatch(batch, 1.0);
+	}
+	
+	/** remove the instances of a batch, added by train or update, from the counts
+	 * @param batch instances with the same labels and attributes as the training set
+	 */
+	public void forget(ArffDataSet batch) {
+		countBatch(batch, -1.0);
+	}
+	
+	/** aux method to add (weight 1) or remove (weight -1) the instances of a batch in place,
+	 * in time proportional to the batch and without allocating tables */
+	private void countBatch(ArffDataSet batch, double weight) {
+		if (counts==null) {
+			throw new IllegalStateException("the model must be trained before it is updated");
+		}
+		if (!header.sameMetaValues(batch)) {
+			throw new IllegalArgumentException("the batch doesn't have the labels and attributes of the training set");
 		}
+		labelInstances= null;  // positions no longer match the counts
+		int[][] cols= discretizer==null ? batch.getColumns() : discretizer.apply(batch);
+		if (selected!=null) { cols= FeatureSelection.project(cols, selected); }
+		counts.add(cols, batch.getLabelColumn(), 0, batch.size(), weight);
+		if (gaussStats!=null) { gaussStats.add(batch, weight<0); }
+		stale= true;
+	}
+	
+	/** recompute the probabilities from the counts, in time proportional to the size of the tables */
+	private void refresh() {
+		long start= System.nanoTime();
+		instanceSize= counts.total();
 		
 		// sum up occurrence for each attribute value
-		for (int ocr=0;ocr<occurRec.size();ocr++) {
-			for (int ocn=0; ocn<occurRec.get(ocr).size();ocn++) {
-				double subSumAttr= 0.0;
-				for (int oca=0; oca<occurRec.get(ocr).get(ocn).size(); oca++) {
-					subSumAttr+= occurRec.get(ocr).get(ocn).get(oca);
-				}
-				occurRec.get(ocr).get(ocn).add(subSumAttr);
+		occurSum= new double[labelSize][attrSize.length];
+		for (int l=0;l<labelSize;l++) {
+			for (int a=0;a<attrSize.length;a++) {
+				for (int av=0;av<attrSize[a];av++) { occurSum[l][a]+= counts.count(l,a,av); }
 			}
 		}
 		
 		// record the smoothed probability for each class label P(Y=y_i)
 		for (int l=0;l<labelRec.length;l++) {
-			probLabel[l]= (labelRec[l]+DELTA)/(instanceSize + labelRec.length*DELTA);
+			probLabel[l]= (labelRec[l]+smoothing.label())/(instanceSize + labelRec.length*smoothing.label());
 		}
-		
+		stale= false;
+		if (Metrics.ENABLED) { Metrics.get().recordPhase(Metrics.CPT, System.nanoTime()-start); }
+	}
+	
+	
+	/** returns the trained model: label priors and P(X=x_i | Y=y_j) for each attribute */
+	public TrainedModel toModel() {
+		if (stale) { refresh(); }
+		// attributes left out by the feature selection keep an empty table
+		int d= attributes.size();
+		double[][] probTable= new double[d][];
+		Arrays.fill(probTable, new double[0]);
+		for (int a=0;a<attrSize.length;a++) {
+			double[] table= new double[labelSize*attrSize[a]];
+			for (int l=0;l<labelSize;l++) {
+				for (int av=0;av<attrSize[a];av++) { table[l*attrSize[a] + av]= p_v_given_l(l,a,av); }
+			}
+			probTable[selected==null ? a : selected[a]]= table;
+		}
+		int[] parentAttribute= new int[d];
+		Arrays.fill(parentAttribute, -1);
+		return new TrainedModel(TrainedModel.NAIVE_BAYES, header, probLabel.clone(), parentAttribute, probTable,
+			discretizer==null ? null : discretizer.cutPoints, gaussStats==null ? null : gaussStats.parameters());
 	}
 	
 	
+	/**
+	 * derive a model for each smoothing from the counts of the last training, without recounting;
+	 * the models are derived on parallelism threads and this classifier keeps its own smoothing
+	 * @param smoothings smoothing of each model
+	 */
+	public TrainedModel[] toModels(Smoothing[] smoothings) {
+		if (counts==null) {
+			throw new IllegalStateException("the model must be trained before models are derived");
+		}
+		if (stale) { refresh(); }
+		TrainedModel[] models= new TrainedModel[smoothings.length];
+		List<Callable<Void>> tasks= new ArrayList<Callable<Void>>();
+		for (int k=0;k<smoothings.length;k++) {
+			final int pos= k;
+			tasks.add(() -> { models[pos]= derive(smoothings[pos]).toModel(); return null; });
+		}
+		ForkJoinPool pool= new ForkJoinPool(parallelism);
+		try {
+			for (Future<Void> future: pool.invokeAll(tasks)) { future.get(); }
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while deriving models", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("failed to derive a model", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return models;
+	}
+	
+	/** aux method to create a classifier with another smoothing over the same (shared) counts */
+	private NaiveBayes derive(Smoothing smoothing) {
+		NaiveBayes model= new NaiveBayes();
+		model.smoothing= smoothing;
+		model.train(header, counts, discretizer, gaussStats);
+		model.selected= selected;
+		return model;
+	}
+	
 	/** classify the dataset
 	 * @param testset
 	 */
 	public void classify(ArffDataSet testset) {
-		
-		int correctNum= 0;
-		for (int inst=0;inst<testset.instances.size();inst++) {
-			String[] res= classifyInstance(testset.instances.get(inst));
-			String actualLabel= testset.instances.get(inst).label;
-			System.out.println(res[0]+" "+actualLabel+" "+res[1]);
-			if (res[0].equals(actualLabel)) { correctNum++; }
-		}
-		System.out.println("\nAccuracy= "+correctNum+"/"+testset.instances.size());
-		
+		toModel().classify(testset, aggregate);
 	}
 	
-	/** classify each instance of the dataset
-	 * @param Instance inst
-	 * @return String[] {classified class, probability of likelihood} 
+	/** classify a sparse test set
+	 * @param testset
 	 */
-	private String[] classifyInstance(Instance inst) {
-		
-		// joint probability
-		double[] jointProb= probLabel.clone();
-		for (int a=0;a<inst.attributes.size();a++) {
-			for (int l=0;l<labelSize;l++) {
-				jointProb[l]*= p_v_given_l(l,a,inst.attributes.get(a));
-			}
-		}
-		
-		// total probability
-		double totalProb= 0.0, maxProb= 0.0;
-		for (int l=0;l<labelSize;l++) { totalProb+= jointProb[l]; }
-		
-		// classification
-		int classifyClass= 0;
-		for (int l=0;l<labelSize;l++) {
-			// update maximum likelihood if probability is greater
-			double classifyProb= jointProb[l]/totalProb;
-			if (classifyProb> maxProb) {
-				maxProb= classifyProb;
-				classifyClass= l;
-			}
-		}
-		return new String[] {labels.get(classifyClass),String.valueOf(maxProb)};
+	public void classify(SparseDataSet testset) {
+		toModel().classify(testset);
 	}
 	
 	/**
 	 * Returns the smoothed conditional probability of an attribute value given the label
 	 * P(X=x_i | Y=y_j) 
 	 */
-	private double p_v_given_l(int label,int attrNo,String attrStrVal) {
+	private double p_v_given_l(int label,int attrNo,int attrValNo) {
 		
-		int attrValNo= mapAttrLoc.get(attrNo).get(attrStrVal);
-		int attrLastIdx= occurRec.get(label).get(attrNo).size()-1;
-		double count= occurRec.get(label).get(attrNo).get(attrValNo);
-		double sum= occurRec.get(label).get(attrNo).get(attrLastIdx);
+		int attrLastIdx= attrSize[attrNo];
+		double count= counts.count(label,attrNo,attrValNo);
+		double sum= occurSum[label][attrNo];
+		double delta= smoothing.attribute(selected==null ? attrNo : selected[attrNo]);
 		
 		//System.out.println(count+"/"+sum);
-		return (count+DELTA)/(sum+attrLastIdx*DELTA);
+		return (count+delta)/(sum+attrLastIdx*delta);
 	}
 	
 	// aux method to print all occurrence of attribute value
 	private void printOccurRec() {
-		for (int i=0;i<occurRec.size();i++) { for (int j=0;j<occurRec.get(i).size();j++) { for (int k=0;k<occurRec.get(i).get(j).size();k++) {  System.out.printf("%d,%d,%d= %.2f\n",i,j,k,occurRec.get(i).get(j).get(k)); } } }
+		for (int i=0;i<labelSize;i++) { for (int j=0;j<attrSize.length;j++) { for (int k=0;k<attrSize[j];k++) {  System.out.printf("%d,%d,%d= %.2f\n",i,j,k,counts.count(i,j,k)); } } }
 	}
 	
 }
@@ -0,0 +1,126 @@
+/**
+ * PackedKeyTable.java (with HigherOrderCounts.java and KDB.java)
+ *
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * Maps non-negative long keys to double values with open addressing and
+ * linear probing, in two primitive arrays (no boxing, no entry objects).
+ * Keys are mixed-radix packed tuples of attribute values (see HigherOrderCounts),
+ * so only the tuples that occur take space. The table doubles when half full.
+ * Reads are safe from any number of threads once the table is no longer written.
+ */
+
+public final class PackedKeyTable {
+
+    private static final long EMPTY= -1L;  // keys are non-negative
+
+    long[] keys;  // key of each slot, EMPTY if the slot is free
+    double[] values;  // value of each slot
+    private int size= 0;  // number of keys
+    private int mask;  // number of slots - 1
+
+    /** create an empty table for about expected keys */
+    public PackedKeyTable(int expected) {
+        int capacity= Integer.highestOneBit(Math.max(4, expected)*2)*2;  // load factor at most 1/2
+        keys= new long[capacity];
+        values= new double[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask= capacity-1;
+    }
+
+    /** returns the number of keys */
+    public int size() { return size; }
+
+    /** returns the number of bytes taken by the slots */
+    public long memoryBytes() { return (long) keys.length*16; }
+
+    /** adds w to the value of key (0 if absent) */
+    public void add(long key, double w) {
+        int slot= slot(key);
+        if (keys[slot]==EMPTY) {
+            keys[slot]= key;
+            values[slot]= w;
+            if (++size*2>keys.length) { grow(); }
+            return;
+        }
+        values[slot]+= w;
+    }
+
+    /** sets the value of key */
+    public void put(long key, double value) {
+        int slot= slot(key);
+        if (keys[slot]==EMPTY) {
+            keys[slot]= key;
+            values[slot]= value;
+            if (++size*2>keys.length) { grow(); }
+            return;
+        }
+        values[slot]= value;
+    }
+
+    /** returns the value of key, missing if it is absent */
+    public double get(long key, double missing) {
+        for (int slot= mix(key) & mask;;slot= (slot+1) & mask) {
+            long k= keys[slot];
+            if (k==key) { return values[slot]; }
+            if (k==EMPTY) { return missing; }
+        }
+    }
+
+    /**
+     * returns the slot of key, -1 if it is absent; the slots stay put until the table grows,
+     * so a table filled once can index arrays kept beside it, e.g. a block of values per key
+     */
+    public int find(long key) {
+        for (int slot= mix(key) & mask;;slot= (slot+1) & mask) {
+            long k= keys[slot];
+            if (k==key) { return slot; }
+            if (k==EMPTY) { return -1; }
+        }
+    }
+
+    /** returns the number of slots */
+    public int capacity() { return keys.length; }
+
+    /** adds the values of other to this table */
+    public void merge(PackedKeyTable other) {
+        for (int slot=0;slot<other.keys.length;slot++) {
+            if (other.keys[slot]!=EMPTY) { add(other.keys[slot], other.values[slot]); }
+        }
+    }
+
+    /** returns the slot of key, or the free slot where it would go */
+    private int slot(long key) {
+        int slot= mix(key) & mask;
+        while (keys[slot]!=key && keys[slot]!=EMPTY) { slot= (slot+1) & mask; }
+        return slot;
+    }
+
+    /** doubles the number of slots */
+    private void grow() {
+        long[] oldKeys= keys;
+        double[] oldValues= values;
+        keys= new long[oldKeys.length*2];
+        values= new double[oldKeys.length*2];
+        Arrays.fill(keys, EMPTY);
+        mask= keys.length-1;
+        for (int s=0;s<oldKeys.length;s++) {
+            if (oldKeys[s]==EMPTY) { continue; }
+            int slot= mix(oldKeys[s]) & mask;
+            while (keys[slot]!=EMPTY) { slot= (slot+1) & mask; }
+            keys[slot]= oldKeys[s];
+            values[slot]= oldValues[s];
+        }
+    }
+
+    /** spreads the bits of a packed key over the low ones, which select the slot */
+    private static int mix(long key) {
+        key*= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key>>>32) ^ (key>>>17));
+    }
+
+}
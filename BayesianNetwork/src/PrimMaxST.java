@@ -0,0 +1,54 @@
+/**
+ * PrimMaxST.java (with TAN.java)
+ *
+ */
+
+
+/**
+ * Prim's algorithm on the dense attribute graph, rooted at attribute 0.
+ * For each attribute outside the tree the best edge into the tree is kept,
+ * so each step is a linear scan and the whole tree takes O(d^2) time.
+ * Every attribute is attached, even when all remaining weights are <= 0.
+ */
+
+public class PrimMaxST implements MaxSpanningTree {
+
+    public int[] parents(double[][] weightMatrix) {
+        int d= weightMatrix.length;
+        int[] parent= new int[d];
+        if (d==0) { return parent; }
+        
+        boolean[] inTree= new boolean[d];
+        double[] best= new double[d];  // best edge weight into the tree
+        int[] bestFrom= new int[d];  // tree end of the best edge
+        
+        // let the first attribute be the root of the tree
+        inTree[0]= true;
+        parent[0]= -1;
+        for (int v=1;v<d;v++) { best[v]= weightMatrix[0][v]; }
+        
+        for (int k=1;k<d;k++) {
+            // pick the attribute with the largest edge into the tree,
+            // ties go to the smaller tree end, then to the smaller attribute
+            int next= -1;
+            for (int v=1;v<d;v++) {
+                if (inTree[v]) { continue; }
+                if (next<0 || best[v]>best[next] || (best[v]==best[next] && bestFrom[v]<bestFrom[next])) { next= v; }
+            }
+            parent[next]= bestFrom[next];
+            inTree[next]= true;
+            
+            // update the best edges with the new tree vertex
+            double[] row= weightMatrix[next];
+            for (int v=1;v<d;v++) {
+                if (inTree[v]) { continue; }
+                if (row[v]>best[v] || (row[v]==best[v] && next<bestFrom[v])) {
+                    best[v]= row[v];
+                    bestFrom[v]= next;
+                }
+            }
+        }
+        return parent;
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * ScalingBenchmark.java
+ *
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * Measures the speedup of the parallel training of NaiveBayes and TAN
+ * from 1 to N threads on a synthetic dataset (see SyntheticArff),
+ * and checks that the counts are identical to the sequential ones.
+ *
+ * usage: java ScalingBenchmark [rows] [attributes] [values] [labels] [maxThreads]
+ */
+
+public class ScalingBenchmark {
+
+    public static void main(String[] args) {
+        int rows= args.length>0 ? Integer.parseInt(args[0]) : 200000;
+        int attrs= args.length>1 ? Integer.parseInt(args[1]) : 20;
+        int values= args.length>2 ? Integer.parseInt(args[2]) : 4;
+        int labels= args.length>3 ? Integer.parseInt(args[3]) : 2;
+        int maxThreads= args.length>4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        ArffDataSet dataset= SyntheticArff.generate(rows, attrs, values, labels, 42L);
+        System.out.println("rows="+rows+" attributes="+attrs+" values="+values+" labels="+labels);
+        System.out.println("threads\tNB(ms)\tspeedup\tTAN(ms)\tspeedup\tidentical");
+
+        double nbBase= 0.0, tanBase= 0.0;
+        CountTable nbRef= null, tanRef= null;
+        TAN tan= null;
+        for (int threads=1; ; threads= Math.min(threads*2, maxThreads)) {
+            NaiveBayes nb= new NaiveBayes();
+            nb.setParallelism(threads);
+            tan= new TAN();
+            tan.setParallelism(threads);
+
+            // warm up once, then keep the best of three runs
+            nb.train(dataset);
+            tan.train(dataset);
+            double nbTime= Double.MAX_VALUE, tanTime= Double.MAX_VALUE;
+            for (int run=0;run<3;run++) {
+                long start= System.nanoTime();
+                nb.train(dataset);
+                nbTime= Math.min(nbTime, (System.nanoTime()-start)/1e6);
+                start= System.nanoTime();
+                tan.train(dataset);
+                tanTime= Math.min(tanTime, (System.nanoTime()-start)/1e6);
+            }
+
+            if (threads==1) {
+                nbBase= nbTime;
+                tanBase= tanTime;
+                nbRef= nb.getCounts();
+                tanRef= tan.getCounts();
+            }
+            boolean identical= sameCounts(nbRef, nb.getCounts()) && sameCounts(tanRef, tan.getCounts());
+            System.out.printf("%d\t%.1f\t%.2f\t%.1f\t%.2f\t%b\n", threads, nbTime, nbBase/nbTime, tanTime, tanBase/tanTime, identical);
+            if (threads>=maxThreads) { break; }
+        }
+        System.out.println("\nTAN phases with "+maxThreads+" threads:");
+        tan.printPhaseTimes();
+    }
+
+    /** aux method to compare two tables entry by entry */
+    private static boolean sameCounts(CountTable a, CountTable b) {
+        return Arrays.equals(a.labelCount, b.labelCount) && Arrays.equals(a.xiCount, b.xiCount)
+            && Arrays.equals(a.pairCount, b.pairCount);
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * ScoringServer.java (with BayesianNetwork.java)
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Serves a trained model over HTTP with the JDK's built-in HttpServer.
+ *
+ * POST /predict   body: one instance per line, attribute values separated by commas
+ *                 (an extra trailing label is ignored)
+ *                 response: predicted label and its probability, one line per instance
+ * GET  /health    response: ok
+ * GET  /metrics   response: the metrics as JSON (see Metrics), 404 if they are off
+ *
+ * Requests are handled on virtual threads when the runtime supports them
+ * (a cached thread pool otherwise), and the instances of concurrent requests
+ * are scored together by a BatchScorer. A request answers 500 if one of its
+ * instances cannot be scored (the other requests of the batch are not affected),
+ * and 503 once the server is stopping.
+ */
+
+public class ScoringServer {
+
+    private final TrainedModel model;
+    private final BatchScorer scorer;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param model trained model
+     * @param port port to listen to
+     * @param maxBatch maximum number of instances scored together
+     * @param maxWaitMicros how long a batch waits for more instances
+     */
+    public ScoringServer(TrainedModel model, int port, int maxBatch, long maxWaitMicros) throws IOException {
+        this.model= model;
+        this.scorer= new BatchScorer(model, maxBatch, maxWaitMicros);
+        this.executor= newExecutor();
+        this.server= HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/predict", this::predict);
+        server.createContext("/health", exchange -> respond(exchange, 200, "ok\n"));
+        server.createContext("/metrics", exchange -> {
+            if (Metrics.ENABLED) { respond(exchange, 200, Metrics.get().toJson()); }
+            else { respond(exchange, 404, "metrics are off, see -Dbayesnet.metrics\n"); }
+        });
+        server.setExecutor(executor);
+    }
+
+    public void start() { server.start(); }
+
+    /** stops listening; the instances not yet scored fail, so their handlers answer 503 */
+    public void stop() {
+        server.stop(0);
+        scorer.close();
+        executor.shutdown();
+    }
+
+    /** returns the port the server listens to */
+    public int getPort() { return server.getAddress().getPort(); }
+
+    /** handles POST /predict */
+    private void predict(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "use POST\n");
+            return;
+        }
+        // submit every instance first, so that they can share a batch
+        int d= model.attributes().size();
+        List<BatchScorer.Request> requests= new ArrayList<BatchScorer.Request>();
+        try (BufferedReader lines= new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line= lines.readLine())!=null) {
+                if (line.trim().isEmpty()) { continue; }
+                String[] values= line.split(",");
+                for (int v=0;v<values.length;v++) { values[v]= ArffReader.unquote(values[v].trim()); }
+                int[] row= new int[d];
+                double[] numeric= new double[d];
+                model.encode(values, row, numeric);
+                requests.add(scorer.submit(row, numeric));
+            }
+        } catch (RejectedExecutionException e) {
+            respond(exchange, 503, "the server is stopping\n");
+            return;
+        }
+
+        StringBuilder sb= new StringBuilder();
+        for (int r=0;r<requests.size();r++) {
+            BatchScorer.Request request= requests.get(r);
+            try {
+                int label= request.await();
+                sb.append(model.labels().get(label)).append(' ').append(request.posterior()[label]).append('\n');
+            } catch (RejectedExecutionException e) {
+                respond(exchange, 503, "the server is stopping\n");
+                return;
+            } catch (IllegalStateException e) {
+                respond(exchange, 500, "instance "+(r+1)+" could not be scored: "+e.getCause()+"\n");
+                return;
+            }
+        }
+        respond(exchange, 200, sb.toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes= body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out= exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** virtual threads when available (Java 21+), a cached thread pool otherwise */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Smoothing.java (with NaiveBayes.java and TAN.java)
+ *
+ */
+
+
+/**
+ * Additive (Dirichlet) smoothing of the probabilities estimated from counts:
+ * a pseudo-count is added to every cell of a distribution before it is normalized,
+ * delta for the label prior and alpha_i for the tables of attribute i (delta unless
+ * given per attribute). The joint cells of a pair of attributes, used for the mutual
+ * information of TAN, take the mean of their two pseudo-counts.
+ * delta=1 everywhere is Laplace smoothing, the default.
+ * Smoothing only applies when the tables are derived from the counts, so a model
+ * can switch smoothing, or derive a model per smoothing, without recounting.
+ */
+
+public final class Smoothing {
+
+    /** add one to every count */
+    public static final Smoothing LAPLACE= new Smoothing(1.0, null);
+
+    private final double delta;  // pseudo-count of the label prior, and of the attributes without their own
+    private final double[] attrDelta;  // pseudo-count of each attribute of the dataset, null if all delta
+
+    private Smoothing(double delta, double[] attrDelta) {
+        if (!(delta>0) || Double.isInfinite(delta)) {
+            throw new IllegalArgumentException("pseudo-counts must be positive and finite: "+delta);
+        }
+        if (attrDelta!=null) {
+            for (double alpha: attrDelta) {
+                if (!(alpha>0) || Double.isInfinite(alpha)) {
+                    throw new IllegalArgumentException("pseudo-counts must be positive and finite: "+alpha);
+                }
+            }
+        }
+        this.delta= delta;
+        this.attrDelta= attrDelta;
+    }
+
+    /** add delta to every count (Lidstone smoothing, Laplace when delta is 1) */
+    public static Smoothing additive(double delta) {
+        return new Smoothing(delta, null);
+    }
+
+    /**
+     * symmetric Dirichlet prior for each attribute
+     * @param delta pseudo-count of the label prior
+     * @param attrDelta pseudo-count of each attribute of the dataset
+     */
+    public static Smoothing dirichlet(double delta, double[] attrDelta) {
+        return new Smoothing(delta, attrDelta.clone());
+    }
+
+    /** returns the pseudo-count of the label prior */
+    public double label() { return delta; }
+
+    /** returns the pseudo-count of attribute a of the dataset */
+    public double attribute(int a) { return attrDelta==null ? delta : attrDelta[a]; }
+
+    /** returns the pseudo-count of the joint cells of attributes a and b of the dataset */
+    public double pair(int a, int b) { return attrDelta==null ? delta : (attrDelta[a]+attrDelta[b])/2; }
+
+    @Override
+    public String toString() {
+        return attrDelta==null ? "additive("+delta+")" : "dirichlet("+delta+", "+attrDelta.length+" attributes)";
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * SparseCheck.java (with SparseDataSet.java)
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Checks that the sparse (CSR) paths give the same results as the dense ones
+ * on a synthetic dataset (see SyntheticArff) where most values are the default
+ * one and some are missing: the counts of CountTable.count(SparseDataSet) against
+ * CountTable.count(ArffDataSet), and the posteriors of InferenceKernel.predictSparse
+ * against the dense prediction of the same Naive Bayes and TAN models.
+ * Prints each check and exits with status 1 if any of them fails.
+ *
+ * usage: java SparseCheck [rows] [attributes] [values] [labels] [seed]
+ */
+
+public class SparseCheck {
+
+    static final double TOLERANCE= 1e-9;  // the sparse scores are the dense ones updated term by term
+
+    public static void main(String[] args) {
+        int rows= args.length>0 ? Integer.parseInt(args[0]) : 5000;
+        int attrs= args.length>1 ? Integer.parseInt(args[1]) : 30;
+        int values= args.length>2 ? Integer.parseInt(args[2]) : 4;
+        int labels= args.length>3 ? Integer.parseInt(args[3]) : 3;
+        long seed= args.length>4 ? Long.parseLong(args[4]) : 7L;
+
+        // mostly default values (position 0), and a few missing ones (-1)
+        ArffDataSet dense= SyntheticArff.generate(rows, attrs, values, labels, seed);
+        Random random= new Random(seed);
+        for (int a=0;a<attrs;a++) {
+            int[] col= dense.getColumn(a);
+            for (int inst=0;inst<rows;inst++) {
+                double u= random.nextDouble();
+                if (u<0.05) { col[inst]= -1; }
+                else if (u<0.75) { col[inst]= 0; }
+            }
+        }
+        SparseDataSet sparse= toSparse(dense);
+        System.out.println("rows="+rows+" attributes="+attrs+" values="+values+" labels="+labels
+                           +" nnz="+sparse.nnz()+" ("+(100*sparse.nnz()/((long) rows*attrs))+"%)");
+
+        boolean ok= true;
+        ok&= check("counts", sameCounts(CountTable.count(dense, false, 1), CountTable.count(sparse, false)));
+        ok&= check("pair counts", sameCounts(CountTable.count(dense, true, 1), CountTable.count(sparse, true)));
+
+        NaiveBayes nb= new NaiveBayes();
+        nb.train(dense);
+        ok&= check("Naive Bayes predictSparse", samePredictions(nb.toModel(), dense, sparse));
+        TAN tan= new TAN();
+        tan.train(dense);
+        ok&= check("TAN predictSparse", samePredictions(tan.toModel(), dense, sparse));
+        if (!ok) { System.exit(1); }
+    }
+
+    /** aux method to store the non-default values of each instance in compressed sparse rows */
+    static SparseDataSet toSparse(ArffDataSet dense) {
+        int d= dense.attributes.size();
+        SparseDataSet sparse= new SparseDataSet(dense);
+        int[] attrs= new int[d], vals= new int[d];
+        int[] labelCol= dense.getLabelColumn();
+        for (int inst=0;inst<dense.size();inst++) {
+            int nnz= 0;
+            for (int a=0;a<d;a++) {
+                int v= dense.getColumn(a)[inst];
+                if (v!=0) {
+                    attrs[nnz]= a;
+                    vals[nnz++]= v;
+                }
+            }
+            sparse.addInstance(attrs, vals, nnz, labelCol[inst]);
+        }
+        return sparse;
+    }
+
+    /** aux method to compare the posteriors of each instance, scored densely and sparsely */
+    private static boolean samePredictions(TrainedModel model, ArffDataSet dense, SparseDataSet sparse) {
+        InferenceKernel kernel= model.kernel();
+        int d= dense.attributes.size(), labelSize= dense.labels.size();
+        int[] row= new int[d+1], scratch= new int[d];
+        double[] expected= new double[labelSize], actual= new double[labelSize];
+        for (int inst=0;inst<dense.size();inst++) {
+            for (int a=0;a<d;a++) { row[a]= dense.getColumn(a)[inst]; }
+            int label= model.predict(row, null, expected);
+            int sparseLabel= kernel.predictSparse(sparse.getRowStart(), sparse.getAttrIndex(), sparse.getValueIndex(), inst, scratch, actual);
+            if (label!=sparseLabel) { return false; }
+            for (int l=0;l<labelSize;l++) {
+                if (Math.abs(expected[l]-actual[l])>TOLERANCE) { return false; }
+            }
+        }
+        return true;
+    }
+
+    /** aux method to compare two tables entry by entry */
+    private static boolean sameCounts(CountTable a, CountTable b) {
+        return Arrays.equals(a.labelCount, b.labelCount) && Arrays.equals(a.xiCount, b.xiCount)
+            && Arrays.equals(a.pairCount, b.pairCount);
+    }
+
+    /** aux method to print the outcome of a check */
+    private static boolean check(String name, boolean ok) {
+        System.out.println(name+": "+(ok ? "ok" : "MISMATCH"));
+        return ok;
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * SparseDataSet.java (with ArffParser.java)
+ *
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * Encoded instances stored in compressed sparse rows (CSR), for
+ * high-dimensional data where most attributes take their default value.
+ * As in sparse ARFF, the default value of an attribute is its first
+ * declared value (position 0); only the other values are stored:
+ * the entries of instance r are at [rowStart[r], rowStart[r+1]) of
+ * attrIndex (attribute) and valueIndex (value position, -1 if missing or undeclared).
+ */
+
+public class SparseDataSet {
+
+    final ArffDataSet header;  // relation, labels and attributes, without instances
+
+    private int numInstances= 0;  // number of instances
+    private int[] rowStart= new int[17];  // start of each instance in attrIndex and valueIndex
+    private int[] attrIndex= new int[64];  // attribute of each entry
+    private int[] valueIndex= new int[64];  // value position of each entry
+    private int[] labelColumn= new int[16];  // label position of each instance, -1 if undeclared
+
+    /** create an empty dataset with the labels and attributes of header */
+    public SparseDataSet(ArffDataSet header) {
+        this.header= header.copyHeader();
+    }
+
+    /**
+     * add an instance
+     * @param attrs attributes that do not take their default value
+     * @param vals value position of each of these attributes (-1 if missing)
+     * @param nnz number of entries in attrs and vals
+     * @param label label position, -1 if undeclared
+     */
+    public void addInstance(int[] attrs, int[] vals, int nnz, int label) {
+        if (numInstances+2>rowStart.length) {
+            rowStart= Arrays.copyOf(rowStart, rowStart.length*2);
+            labelColumn= Arrays.copyOf(labelColumn, rowStart.length);
+        }
+        int start= rowStart[numInstances];
+        if (start+nnz>attrIndex.length) {
+            int capacity= Math.max(start+nnz, attrIndex.length*2);
+            attrIndex= Arrays.copyOf(attrIndex, capacity);
+            valueIndex= Arrays.copyOf(valueIndex, capacity);
+        }
+        System.arraycopy(attrs, 0, attrIndex, start, nnz);
+        System.arraycopy(vals, 0, valueIndex, start, nnz);
+        labelColumn[numInstances]= label;
+        rowStart[++numInstances]= start+nnz;
+    }
+
+    /** returns the number of instances */
+    public int size() { return numInstances; }
+
+    /** returns the number of stored (non-default) entries */
+    public int nnz() { return rowStart[numInstances]; }
+
+    /** returns the start of each instance, only the first size()+1 entries are valid */
+    public int[] getRowStart() { return rowStart; }
+
+    /** returns the attribute of each entry */
+    public int[] getAttrIndex() { return attrIndex; }
+
+    /** returns the value position of each entry */
+    public int[] getValueIndex() { return valueIndex; }
+
+    /** returns the label column, only the first size() entries are valid */
+    public int[] getLabelColumn() { return labelColumn; }
+
+    /**
+     * Returns the positions of the instances of each label,
+     * instances with an undeclared label are left out
+     */
+    public int[][] getLabelInstances() {
+        int labelSize= header.labels.size();
+        int[] labelNum= new int[labelSize];
+        for (int n=0;n<numInstances;n++) {
+            if (labelColumn[n]>=0) { labelNum[labelColumn[n]]++; }
+        }
+        int[][] labelInstances= new int[labelSize][];
+        for (int l=0;l<labelSize;l++) {
+            labelInstances[l]= new int[labelNum[l]];
+            labelNum[l]= 0;
+        }
+        for (int n=0;n<numInstances;n++) {
+            int l= labelColumn[n];
+            if (l>=0) { labelInstances[l][labelNum[l]++]= n; }
+        }
+        return labelInstances;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * SyntheticArff.java
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+
+/**
+ * Generates reproducible synthetic datasets for benchmarks.
+ * The attributes form a noisy chain driven by the label, so that
+ * both classifiers have some structure to learn.
+ * The same seed gives the same instances, in memory or as an ARFF file.
+ *
+ * usage: java SyntheticArff <file> <rows> <attributes> <values> <labels> [seed]
+ */
+
+public class SyntheticArff {
+
+    private final int attrs, values, labels;
+    private final Random rand;
+
+    SyntheticArff(int attrs, int values, int labels, long seed) {
+        this.attrs= attrs;
+        this.values= values;
+        this.labels= labels;
+        this.rand= new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5) {
+            System.out.println("usage: java SyntheticArff <file> <rows> <attributes> <values> <labels> [seed]");
+            System.exit(-1);
+        }
+        long seed= args.length>5 ? Long.parseLong(args[5]) : 42L;
+        write(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]), seed);
+    }
+
+    /** creates the dataset in memory */
+    public static ArffDataSet generate(int rows, int attrs, int values, int labels, long seed) {
+        SyntheticArff gen= new SyntheticArff(attrs, values, labels, seed);
+        ArffDataSet dataset= new ArffDataSet();
+        dataset.addRelation("synthetic");
+        dataset.addLabels(gen.labelValues());
+        for (int a=0;a<attrs;a++) { dataset.addAttribute("a"+a, gen.attrValues()); }
+
+        int[][] cols= new int[attrs][rows];
+        int[] labelCol= new int[rows];
+        int[] row= new int[attrs+1];
+        for (int r=0;r<rows;r++) {
+            gen.next(row);
+            for (int a=0;a<attrs;a++) { cols[a][r]= row[a]; }
+            labelCol[r]= row[attrs];
+        }
+        dataset.addEncodedInstances(cols, labelCol, rows);
+        return dataset;
+    }
+
+    /** writes the dataset as an ARFF file */
+    public static void write(String file, int rows, int attrs, int values, int labels, long seed) throws IOException {
+        SyntheticArff gen= new SyntheticArff(attrs, values, labels, seed);
+        String[] labelValues= gen.labelValues(), attrValues= gen.attrValues();
+        try (Writer out= new BufferedWriter(new FileWriter(file), 1<<16)) {
+            out.write("% synthetic dataset, seed "+seed+"\n");
+            out.write("@relation synthetic\n");
+            for (int a=0;a<attrs;a++) {
+                out.write("@attribute 'a"+a+"' { "+String.join(", ", attrValues)+" }\n");
+            }
+            out.write("@attribute 'class' { "+String.join(", ", labelValues)+" }\n");
+            out.write("@data\n");
+
+            int[] row= new int[attrs+1];
+            StringBuilder sb= new StringBuilder();
+            for (int r=0;r<rows;r++) {
+                gen.next(row);
+                sb.setLength(0);
+                for (int a=0;a<attrs;a++) { sb.append(attrValues[row[a]]).append(','); }
+                sb.append(labelValues[row[attrs]]).append('\n');
+                out.write(sb.toString());
+            }
+        }
+    }
+
+    private String[] labelValues() {
+        String[] labelValues= new String[labels];
+        for (int l=0;l<labels;l++) { labelValues[l]= "c"+l; }
+        return labelValues;
+    }
+
+    private String[] attrValues() {
+        String[] attrValues= new String[values];
+        for (int v=0;v<values;v++) { attrValues[v]= "v"+v; }
+        return attrValues;
+    }
+
+    /** fills the value position of each attribute, followed by the label position */
+    private void next(int[] row) {
+        int label= rand.nextInt(labels), prev= label%values;
+        for (int a=0;a<attrs;a++) {
+            int v= rand.nextDouble()<0.6 ? (prev+label)%values : rand.nextInt(values);
+            row[a]= v;
+            prev= v;
+        }
+        row[attrs]= label;
+    }
+
+}
@@ -6,347 +6,566 @@
  * 
  */
 
-import java.util.List;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 public class TAN {
 
+    private ArffDataSet header; // relation, labels and attributes of the training set
     private List<String> labels; // ordered list of class labels
     private List<String> attributes; // ordered list of attributes
-    private Map<String, List<String>> attrVals; // map to ordered discrete values taken by attributes
+    private int[] attrSize; // stores number of values for each attribute
     
     private double instanceSize; // stores number of instances
     private int labelSize; // stores number of class labels
     private double[] labelRec; // stores occurrence for each label
     private double[] probLabel; // stores probability for each label
     
-    private List<Map<String,Double>> countAttr_ij;  // stores joint occurrence for each attribute pair of each label
-    private List<Map<String,Double>> countXi;  // stores occurrence for each attribute of each label
+    private CountTable counts;  // stores occurrence for each attribute and joint occurrence for each attribute pair of each label
 
-    List<List<Instance>> labelInstances; // stores instances based on class label (for Cross-Validation)
-    
-    private final double DELTA= 1.0; // add delta constant
+    int[][] labelInstances; // stores instance positions based on class label (for Cross-Validation)
     
-    private List<Map<String,Integer>> mapAttrLoc; // stores the mapping of attribute value to location
-    private Map<String,Integer> mapLabelLoc; // stores the mapping of class label value to location
+    private Smoothing smoothing= Smoothing.LAPLACE; // pseudo-counts added to the counts
+    private int parallelism= 1; // number of threads used for counting
+    private boolean aggregate= false;  // collapse duplicate rows into weighted instances before counting and scoring
+    private BitmapIndex index;  // bitsets of the training set to count with popcounts, null to count row by row
     
     private double[][] weightMatrix;  // stores the weight matrix to construct MaxST
-    private Map<int[],Double> maximalTree;  // stores maximalTree edges and weights
-    private int[] parentAttribute;  // stores parent attribute for each attribute
+    private MaxSpanningTree spanningTree= new PrimMaxST();  // algorithm used to find the TAN structure
+    private int[] parentAttribute;  // stores parent attribute for each attribute, -1 if only the class
+    
+    private int bins= Discretizer.DEFAULT_BINS;  // number of bins of numeric attributes
+    private Discretizer discretizer;  // bins of the numeric attributes, null if there are none
+    
+    private FeatureSelection selection;  // selects the attributes to train on, null to keep all of them
+    private int[] selected;  // attributes kept by the selection, counts and tables follow this order; null if all
     
-    private List<Map<String,Double>> probTable; // stores the conditional probability for each label 
+    private double driftThreshold= 0.1;  // fraction of the counted instances that may change before the structure is relearned
+    private double structureSize;  // number of instances when the structure was last learned
+    private double drift;  // number of instances added or forgotten since then
+    private boolean stale= false;  // true when the counts changed since the tables were computed
+    private boolean relearn= false;  // true when the smoothing changed since the structure was learned
+    
+    static final String[] PHASES= {"counting", "mutual info", "max spanning tree", "cpt"};
+    private final long[] phaseTime= new long[PHASES.length]; // stores time (ns) spent in each training phase
+    
+    private double[][] probTable; // stores the conditional probability P(X_e | X_parent, Y) for each attribute e,
+                                  // at (l*parentSize + parentVal)*attrSize[e] + attrVal
     
     /** constructor */
     TAN() {}
     
+    /** set the number of threads used to count the training instances */
+    public void setParallelism(int parallelism) { this.parallelism= Math.max(1, parallelism); }
+    
+    /** set the algorithm used to find the maximal spanning tree (Prim's by default) */
+    public void setSpanningTree(MaxSpanningTree spanningTree) { this.spanningTree= spanningTree; }
+    
+    /** select the attributes to train on (in-memory datasets only), null to keep all of them */
+    public void setFeatureSelection(FeatureSelection selection) { this.selection= selection; }
+    
+    /** set the smoothing of the probabilities (Laplace by default); a trained model recomputes
+     * its mutual information, structure and tables from the counts the next time it is used */
+    public void setSmoothing(Smoothing smoothing) {
+        this.smoothing= smoothing;
+        if (counts!=null) {
+            stale= true;
+            relearn= true;
+        }
+    }
+    
+    /** collapse duplicate rows into (row, weight) pairs before counting, and classify
+     * each distinct test row once; pays off when the data repeats rows a lot */
+    public void setAggregation(boolean aggregate) { this.aggregate= aggregate; }
+    
+    /** count the training set with popcounts over a bitmap index built for it
+     * (BitmapIndex.build of the dataset later passed to train), null to count row by row;
+     * the index can be reused by any number of TAN models trained on that dataset
+     */
+    public void setIndex(BitmapIndex index) { this.index= index; }
+    
+    /** set the number of equal-frequency bins of numeric attributes */
+    public void setBins(int bins) { this.bins= Math.max(1, bins); }
+    
+    /**
+     * set how much the data may change before update/forget relearn the structure:
+     * the mutual information and the tree are recomputed once the instances added or
+     * forgotten since the last structure exceed this fraction of the instances counted then
+     * (0 relearns on every change, Double.POSITIVE_INFINITY keeps the structure)
+     */
+    public void setDriftThreshold(double driftThreshold) { this.driftThreshold= driftThreshold; }
+    
+    /** returns the mutual information matrix of the last training */
+    double[][] getWeightMatrix() { return weightMatrix; }
+    
+    /** returns the counts of the last training */
+    CountTable getCounts() { return counts; }
+    
+    /** returns the header of the last training */
+    ArffDataSet getHeader() { return header; }
+    
+    /** returns the bins of the numeric attributes of the last training, null if there are none */
+    Discretizer getDiscretizer() { return discretizer; }
+    
+    /** returns the attributes kept by the feature selection of the last training, null if all */
+    int[] getSelected() { return selected; }
+    
     /** train the TAN model with dataset
      * @param dataset
      */
     public void train(ArffDataSet dataset) {
+        long start= System.nanoTime();
+        Discretizer discretizer= null;
+        CountTable counts;
+        int[] selected= null;
+        if (index!=null && (dataset.hasNumeric() || index.size()!=dataset.size() || !Arrays.equals(index.arity, dataset.getArity()))) {
+            throw new IllegalArgumentException("the bitmap index was not built for this dataset");
+        }
+        if (dataset.hasNumeric() || selection!=null) {
+            /** numeric attributes are discretized into equal-frequency bins **/
+            discretizer= dataset.hasNumeric() ? Discretizer.fit(dataset, bins) : null;
+            int[][] cols= discretizer==null ? dataset.getColumns() : discretizer.apply(dataset);
+            int[] arity= discretizer==null ? dataset.getArity() : discretizer.arity(dataset);
+            int[] labelCol= dataset.getLabelColumn();
+            int labelSize= dataset.labels.size();
+            
+            /** the pairs are only counted for the selected attributes, unless the selection needs them all **/
+            if (selection==null) {
+                counts= count(cols, labelCol, dataset.size(), labelSize, arity, true);
+            } else if (index!=null) {
+                CountTable all= index.counts(null, selection.needsPairs(), parallelism);
+                selected= selection.select(all);
+                counts= all.hasPairs() ? all.project(selected) : index.counts(selected, true, parallelism);
+            } else {
+                CountTable all= count(cols, labelCol, dataset.size(), labelSize, arity, selection.needsPairs());
+                selected= selection.select(all);
+                counts= all.hasPairs() ? all.project(selected) 
+                    : count(FeatureSelection.project(cols, selected), labelCol, dataset.size(), labelSize,
+                            FeatureSelection.project(arity, selected), true);
+            }
+        } else if (index!=null) {
+            counts= index.counts(null, true, parallelism);
+        } else {
+            counts= count(dataset.getColumns(), dataset.getLabelColumn(), dataset.size(), dataset.labels.size(), dataset.getArity(), true);
+        }
+        endPhase(0, start);
+        train(dataset, counts, discretizer, selected);
+
+        /** create subsets of each label (instance positions) **/
+        labelInstances= dataset.getLabelInstances();
+    } // end of training with Dataset
+    
+    /** aux method to count the first n instances of encoded columns, collapsing duplicate rows first if aggregation is on */
+    private CountTable count(int[][] cols, int[] labelCol, int n, int labelSize, int[] arity, boolean pairs) {
+        return aggregate ? CountTable.countDistinct(cols, labelCol, n, labelSize, arity, pairs, parallelism)
+                         : CountTable.count(cols, labelCol, n, labelSize, arity, pairs, parallelism);
+    }
+    
+    /** train the TAN model with a sparse dataset: pairs are counted only over
+     * co-occurring non-default values, O(nnz^2) per instance
+     * @param dataset
+     */
+    public void train(SparseDataSet dataset) {
+        long start= System.nanoTime();
+        CountTable counts= CountTable.count(dataset, true);
+        endPhase(0, start);
+        train(dataset.header, counts);
+        labelInstances= dataset.getLabelInstances();
+    }
+    
+    /** train the TAN model in a single pass over an ARFF stream,
+     * without keeping the instances in memory; with numeric attributes,
+     * long streams take a second pass over a temporary file (see Discretizer.count)
+     * @param reader
+     */
+    public void train(ArffReader reader) throws IOException {
+        long start= System.nanoTime();
+        Discretizer[] fitted= new Discretizer[1];
+        CountTable counts= reader.header().hasNumeric() ? Discretizer.count(reader, bins, true, fitted) 
+                                                        : CountTable.count(reader, true);
+        endPhase(0, start);
+        train(reader.header(), counts, fitted[0], null);
+        labelInstances= null;  // positions are not known when streaming
+    }
+    
+    /** train the TAN model from the counts of a dataset
+     * @param header labels and attributes of the dataset
+     * @param counts occurrence for each attribute and each attribute pair of each label
+     */
+    public void train(ArffDataSet header, CountTable counts) {
+        train(header, counts, null, null);
+    }
+    
+    /** train the TAN model from the counts of a dataset whose numeric attributes are discretized
+     * @param discretizer bins of the numeric attributes in counts, null if there are none
+     * @param selected attributes of the dataset that counts refer to, null if all
+     */
+    void train(ArffDataSet header, CountTable counts, Discretizer discretizer, int[] selected) {
+        this.discretizer= discretizer;
+        this.selected= selected;
         // initialize the variables 
-        this.labels= dataset.labels;
-        this.attributes= dataset.attributes;
-        this.attrVals= dataset.attributeValuesMap;
-        
-        instanceSize= dataset.instances.size();
+        this.header= header.copyHeader();
+        this.labels= header.labels;
+        this.attributes= header.attributes;
+        attrSize= counts.arity;
         labelSize= labels.size();
-        labelRec= new double[labelSize];
-        mapAttrLoc= dataset.mapAttrLoc;
-        mapLabelLoc= new HashMap<String,Integer>();
-
-        /** create subsets for each label
-         * create ArrayLists that store the number of each attribute value in each label
-         */
-        labelInstances= new ArrayList<List<Instance>>();
-        probTable= new ArrayList<Map<String,Double>>();
-        countAttr_ij= new ArrayList<Map<String,Double>>();
-        countXi= new ArrayList<Map<String,Double>>();
-        for (int l=0;l<labelSize;l++) { 
-            List<Instance> instance= new ArrayList<Instance>();
-            Map<String,Double> mapAttr_ij= new HashMap<String,Double>();
-            Map<String,Double> mapXi= new HashMap<String,Double>();
-            Map<String,Double> mapProbT= new HashMap<String,Double>();
-            // add empty map
-            countAttr_ij.add(mapAttr_ij);
-            countXi.add(mapXi);
-            probTable.add(mapProbT);
-            // add instance
-            labelInstances.add(instance);
-            mapLabelLoc.put(labels.get(l),l); 
-        }
 
-        /** record the total number and the number of entry in each label **/
-        for (Instance inst: dataset.instances) {
-            int labelNo= mapLabelLoc.get(inst.label);
-            labelRec[labelNo]++;
-            labelInstances.get(labelNo).add(inst);
-            
-            for (int ai=0;ai<attributes.size();ai++) {
-                int attrValNoXi= mapAttrLoc.get(ai).get(inst.attributes.get(ai)); // get attribute value position
-                
-                Map<String,Double> mapAttrXi= countXi.get(labelNo);
-                String keyXi= new StringBuilder(ai+","+attrValNoXi).toString();
-                if (!mapAttrXi.containsKey(keyXi)) { mapAttrXi.put(keyXi,0.0); }
-                mapAttrXi.put(keyXi,(mapAttrXi.get(keyXi)+1.0));
-                
-                for (int aj=0;aj<attributes.size();aj++) {
-                    Map<String,Double> mapJointAttr= countAttr_ij.get(labelNo);
-                    if (ai!=aj) {
-                        int attrValNoXj= mapAttrLoc.get(aj).get(inst.attributes.get(aj));
-                        String keyJointAttr= new StringBuilder(ai+","+attrValNoXi+","+aj+","+attrValNoXj).toString();
-                        if (!mapJointAttr.containsKey(keyJointAttr)) { mapJointAttr.put(keyJointAttr,0.0); }
-                        mapJointAttr.put(keyJointAttr,(mapJointAttr.get(keyJointAttr)+1.0));
-                    }
-                }  // end of Xj loop
-            }  // end of Xi loop
-        }  // end of instance loop
+        /** the total number and the number of entry in each label **/
+        this.counts= counts;
+        labelRec= counts.labelCount;
+        instanceSize= counts.total();
 
         /** get probability for the labels **/
         probLabel= p_l();
         
+        learnStructure();
+        
+        /** create Conditional Probability Table **/
+        long start= System.nanoTime();
+        createCPT();
+        endPhase(3, start);
+        stale= false;
+
+    } // end of training with counts
+    
+    /** add the instances of a batch to the counts, without retraining over the previous data;
+     * the tables (and the structure, see setDriftThreshold) are refreshed the next time the model is used
+     * @param batch instances with the same labels and attributes as the training set
+     */
+    public void update(ArffDataSet batch) {
+        countBatch(batch, 1.0);
+    }
+    
+    /** remove the instances of a batch, added by train or update, from the counts
+     * @param batch instances with the same labels and attributes as the training set
+     */
+    public void forget(ArffDataSet batch) {
+        countBatch(batch, -1.0);
+    }
+    
+    /** aux method to add (weight 1) or remove (weight -1) the instances of a batch in place,
+     * in time proportional to the batch and without allocating tables */
+    private void countBatch(ArffDataSet batch, double weight) {
+        if (counts==null) {
+            throw new IllegalStateException("the model must be trained before it is updated");
+        }
+        if (!header.sameMetaValues(batch)) {
+            throw new IllegalArgumentException("the batch doesn't have the labels and attributes of the training set");
+        }
+        labelInstances= null;  // positions no longer match the counts
+        long start= System.nanoTime();
+        int[][] cols= discretizer==null ? batch.getColumns() : discretizer.apply(batch);
+        if (selected!=null) { cols= FeatureSelection.project(cols, selected); }
+        double before= counts.total();
+        counts.add(cols, batch.getLabelColumn(), 0, batch.size(), weight);
+        drift+= Math.abs(counts.total()-before);
+        endPhase(0, start);
+        stale= true;
+    }
+    
+    /**
+     * recompute the tables from the updated counts, and the structure
+     * only when the drift since it was learned passes the threshold
+     */
+    private void refresh() {
+        instanceSize= counts.total();
+        probLabel= p_l();
+        if (relearn || drift>driftThreshold*structureSize) {
+            learnStructure();
+        } else {
+            phaseTime[1]= 0;
+            phaseTime[2]= 0;
+        }
+        long start= System.nanoTime();
+        createCPT();
+        endPhase(3, start);
+        stale= false;
+    }
+    
+    /** compute the mutual information and the maximal spanning tree (the parent of each attribute) */
+    private void learnStructure() {
         /** calculate mutual information matrix to build MST **/
+        long start= System.nanoTime();
         getMutualInfo();
+        endPhase(1, start);
 
         /** create Maximal Spanning Tree to find the TAN structure **/
-        PrimsMaxST();
+        start= System.nanoTime();
+        parentAttribute= spanningTree.parents(weightMatrix);
+        endPhase(2, start);
         
-        /** create Conditional Probability Table **/
-        createCPT();
-
-    } // end of training with Dataset
+        structureSize= instanceSize;
+        drift= 0.0;
+        relearn= false;
+    }
 
     
+    /** returns the trained model: label priors, parent attributes and conditional probability tables */
+    public TrainedModel toModel() {
+        if (stale) { refresh(); }
+        // attributes left out by the feature selection keep an empty table
+        int d= attributes.size();
+        double[][] tables= new double[d][];
+        int[] parents= new int[d];
+        Arrays.fill(tables, new double[0]);
+        Arrays.fill(parents, -1);
+        for (int e=0;e<probTable.length;e++) {
+            tables[attribute(e)]= probTable[e].clone();
+            parents[attribute(e)]= parentAttribute[e]<0 ? -1 : attribute(parentAttribute[e]);
+        }
+        return new TrainedModel(TrainedModel.TAN, header, probLabel.clone(), parents, tables,
+                                discretizer==null ? null : discretizer.cutPoints, null);
+    }
+    
+    /**
+     * derive a model for each smoothing from the counts of the last training, without recounting:
+     * each one recomputes the mutual information, the spanning tree and the tables,
+     * and the models are derived on parallelism threads; this classifier keeps its own smoothing
+     * @param smoothings smoothing of each model
+     */
+    public TrainedModel[] toModels(Smoothing[] smoothings) {
+        if (counts==null) {
+            throw new IllegalStateException("the model must be trained before models are derived");
+        }
+        TrainedModel[] models= new TrainedModel[smoothings.length];
+        List<Callable<Void>> tasks= new ArrayList<Callable<Void>>();
+        for (int k=0;k<smoothings.length;k++) {
+            final int pos= k;
+            tasks.add(() -> { models[pos]= derive(smoothings[pos]).toModel(); return null; });
+        }
+        ForkJoinPool pool= new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> future: pool.invokeAll(tasks)) { future.get(); }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while deriving models", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to derive a model", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return models;
+    }
+    
+    /** aux method to train a classifier with another smoothing over the same (shared) counts;
+     * the models are derived in parallel, so each one computes its mutual information on one thread */
+    private TAN derive(Smoothing smoothing) {
+        TAN model= new TAN();
+        model.smoothing= smoothing;
+        model.spanningTree= spanningTree;
+        model.train(header, counts, discretizer, selected);
+        return model;
+    }
+    
+    /** returns the position in the dataset of attribute e of the tables */
+    private int attribute(int e) {
+        return selected==null ? e : selected[e];
+    }
+    
+    
     /** classify the test set
      * @param testset
      */
     public void classify(ArffDataSet testset) {
     	
+        if (stale) { refresh(); }
         printAttributeTree();
         // classify each instance and record number of correct answers
-        int correctNum= 0;
-        for (int inst=0;inst<testset.instances.size();inst++) {
-            String[] res= classifyInstance(testset.instances.get(inst));
-            String actualLabel= testset.instances.get(inst).label;
-            System.out.println(res[0]+" "+actualLabel+" "+res[1]);
-            if (res[0].equals(actualLabel)) { correctNum++; }
-        }
-        System.out.println("\nAccuracy= "+correctNum+"/"+testset.instances.size());
+        toModel().classify(testset, aggregate);
     } // end of classification
     
-    
-    /** classify each instance to label L
-     * @param inst
-     * @return String[] of {classified label, probability of maximum likelihood}
+    /** classify a sparse test set
+     * @param testset
      */
-    private String[] classifyInstance(Instance inst) {
-        
-        double[] jointProb= new double[labelSize];
-        double allProb= 0.0;
-        // for each label
-        for (int l=0;l<labelSize; l++) {
-            jointProb[l]= probLabel[l];
-            // for each attribute in Instance
-            for (int attr=0; attr<inst.attributes.size(); attr++) {
-                
-                int attrValNo= mapAttrLoc.get(attr).get(inst.attributes.get(attr)); // get attribute value position
-                
-                String keyAttr= new StringBuilder(attr+","+attrValNo+",,").toString();;
-                
-                // vertex / attribute 0 has no parent
-                if (attr>0) {
-                
-                	String keyParAttrVal= inst.attributes.get(parentAttribute[attr]);
-                	int parAttrValNo= mapAttrLoc.get(parentAttribute[attr]).get(keyParAttrVal); // get parent attribute value position
-                	keyAttr= new StringBuilder(attr+","+attrValNo+","+parentAttribute[attr]+","+parAttrValNo).toString();
-            	
-                } // end if else attribute
-                
-                double prob= probTable.get(l).get(keyAttr);
-                jointProb[l]*= prob;
-    	        
-            } // end of attribute for loop
-            allProb+= jointProb[l];
-        } // end of label for loop
-        
-        // find the best label
-        double[] classify_prob= new double[labelSize];
-        double maxProb= 0.0;
-        int classifyClass= 0;
-        for (int l=0; l< classify_prob.length; l++) {
-			classify_prob[l]= jointProb[l] / allProb;
-			if (classify_prob[l] > maxProb) {
-				classifyClass= l;
-				maxProb= classify_prob[l];
-			}
-		}
-		
-		return new String[] {labels.get(classifyClass),String.valueOf(maxProb)};
-        
+    public void classify(SparseDataSet testset) {
+        if (stale) { refresh(); }
+        printAttributeTree();
+        toModel().classify(testset);
+    }
+    
+    
+    /** returns the time (ns) spent in each phase of the last training, in the order of PHASES */
+    public long[] getPhaseTimes() { return phaseTime.clone(); }
+    
+    /** record the time of a phase started at start (ns) */
+    private void endPhase(int phase, long start) {
+        phaseTime[phase]= System.nanoTime()-start;
+        if (Metrics.ENABLED) { Metrics.get().recordPhase(phase, phaseTime[phase]); }
+    }
+    
+    /** print the time spent in each phase of the last training **/
+    public void printPhaseTimes() {
+        for (int p=0;p<PHASES.length;p++) {
+            System.out.printf("%s: %.3f ms\n", PHASES[p], phaseTime[p]/1e6);
+        }
     }
     
     
     /** print attribute Tree structure **/
 	public void printAttributeTree() {
-	    System.out.println(attributes.get(0)+" class");
-        for (int e=1;e<parentAttribute.length;e++) {
-            System.out.println(attributes.get(e)+" "+attributes.get(parentAttribute[e])+" class");
+        for (int e=0;e<parentAttribute.length;e++) {
+            if (parentAttribute[e]<0) { System.out.println(attributes.get(attribute(e))+" class"); }
+            else { System.out.println(attributes.get(attribute(e))+" "+attributes.get(attribute(parentAttribute[e]))+" class"); }
         }
         System.out.println();
 	}
     
     
+    /** compute the mutual information matrix of the counts of the last training */
+    void getMutualInfo() {
+        weightMatrix= mutualInfo(counts, smoothing, selected, parallelism);
+    }
+    
     /**
      * calculate mutual information 
      * I(X_i,X_j | Y_k)= sum_{i,j,k} p(X_i,X_j,Y_k)*log( (p(X_i,X_j,Y_k)*p(Y_k)) / (p(X_i,Y_k)*p(X_j,Y_k) )
+     * the matrix is symmetric, so only the upper triangle is computed (in parallel over rows) and mirrored;
+     * it only needs the pairwise counts, so other classifiers (KDB) use it without training a TAN
+     * @param counts occurrence for each attribute and each attribute pair of each label
+     * @param selected attributes of the dataset that counts refer to (for the smoothing), null if all
+     * @return weightMatrix, with -1 on the diagonal
      */
-    private void getMutualInfo() {	
-        // initialize the weight Matrix
-        weightMatrix= new double[attributes.size()][attributes.size()];
-        // loop through all attributes and 
-        for (int ai=0;ai<attributes.size();ai++) {
-            for (int aj=0;aj<attributes.size();aj++) {
-                // default mutual weight (self)
-                double mutualWeight= -1.0;
-                // retrieve mutual info gain if not the same attribute
-                if (ai!=aj) {
-                    double mutualInfoGain= 0.0;  // define mutual info gain 
-                    int avLenXi= attrVals.get(attributes.get(ai)).size();  // size of attribute X_i values 
-                    int avLenXj= attrVals.get(attributes.get(aj)).size();  // size of attribute X_j values
-                    // loop through all attribute values 
-                    for (int aiVal=0;aiVal<avLenXi;aiVal++) { 
-                        for (int ajVal=0;ajVal<avLenXj;ajVal++) {
-                            // loop through all class labels
-                            for (int l=0;l<labelSize;l++) {
-                                // create specific format of key to retrieve its value
-                                String keyXi= new StringBuilder(ai+","+aiVal).toString();
-                                String keyXj= new StringBuilder(aj+","+ajVal).toString();
-                                String keyXiXj= new StringBuilder(ai+","+aiVal+","+aj+","+ajVal).toString();
-
-                                Map<String,Double> mapXi= countXi.get(l), mapXiXj= countAttr_ij.get(l);
-                                double numXiY= 0.0, numXjY= 0.0, numXiXjY= 0.0;
-
-                                // get counts for each key
-                                if (mapXi.containsKey(keyXi)) { numXiY= mapXi.get(keyXi); }
-                                if (mapXi.containsKey(keyXj)) { numXjY= mapXi.get(keyXj); }
-                                if (mapXiXj.containsKey(keyXiXj)) { numXiXjY= mapXiXj.get(keyXiXj); }
-
-                                // probability given Y (class label)
-                                double probXiXj= (numXiXjY+DELTA)/(instanceSize+(avLenXi*avLenXj*labelSize)*DELTA);
-                                double probXi_Y= (numXiY+DELTA)/(labelRec[l]+avLenXi*DELTA);
-                                double probXj_Y= (numXjY+DELTA)/(labelRec[l]+avLenXj*DELTA);
-                                double probXiXj_Y= (numXiXjY+DELTA)/(labelRec[l]+avLenXi*avLenXj*DELTA);
-
-                                double infoGain= probXiXj*log2(probXiXj_Y/(probXi_Y*probXj_Y));
-                                mutualInfoGain+= infoGain;
-
-                            }  // end of label loop	
-                         }  // end of Xj value loop
-                    }  // end of Xi value loop
-                    mutualWeight= mutualInfoGain;
-
-                }  // end of if else 
-                weightMatrix[ai][aj]= mutualWeight;
-            }  // end of Xj loop
-        } // end of Xi loop
+    static double[][] mutualInfo(CountTable counts, Smoothing smoothing, int[] selected, int parallelism) {	
+        int d= counts.arity.length, labelSize= counts.labelSize;
+        // initialize the weight Matrix, default mutual weight (self) is -1
+        double[][] weightMatrix= new double[d][d];
+        for (int ai=0;ai<d;ai++) { weightMatrix[ai][ai]= -1.0; }
+        
+        // cache log2 P(X_i | Y) for each label, attribute and value
+        double[][][] logXi_Y= new double[labelSize][d][];
+        for (int l=0;l<labelSize;l++) {
+            for (int ai=0;ai<d;ai++) {
+                int arity= counts.arity[ai];
+                logXi_Y[l][ai]= new double[arity];
+                for (int aiVal=0;aiVal<arity;aiVal++) {
+                    double delta= smoothing.attribute(selected==null ? ai : selected[ai]);
+                    logXi_Y[l][ai][aiVal]= log2((counts.count(l,ai,aiVal)+delta)/(counts.labelCount[l]+arity*delta));
+                }
+            }
+        }
+        
+        MutualInfoTask task= new MutualInfoTask(counts, smoothing, selected, counts.total(), logXi_Y, weightMatrix, 0, d);
+        if (parallelism<=1) {
+            task.compute();
+            return weightMatrix;
+        }
+        ForkJoinPool pool= new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(task);
+        } finally {
+            pool.shutdown();
+        }
+        return weightMatrix;
     }
     
-    
     /**
-     * use Prim's algorithm to find MAX Spanning Tree 
-     * by treating the original weights as negated values
-     * pick the largest instead of the smallest
+     * computes the rows [from,to) of the upper triangle of the weight matrix,
+     * splitting the rows in half until a single row is left
      */
-    private void PrimsMaxST() {
+    private static class MutualInfoTask extends RecursiveAction {
+        private static final long serialVersionUID= 1L;
+        private final CountTable counts;
+        private final Smoothing smoothing;
+        private final int[] selected;
+        private final double instanceSize;
+        private final double[][][] logXi_Y;
+        private final double[][] weightMatrix;
+        private final int from, to;
         
-        // create HashMap that stores edges as int[] and its weight as double for the MaxST
-        // let the first attribute be the root of the tree
-        maximalTree= new HashMap<int[],Double>();
-        parentAttribute= new int[attributes.size()];
-        Set<Integer> vertex= new HashSet<Integer>();
-        vertex.add(0);
-        parentAttribute[0]= -1;
-
-        // find the MaxST until current tree include all vertices (attributes)
-        while (vertex.size()<attributes.size()) {
-			
-            int[] edges= new int[]{-1,-1};
-            double maxVal= 0.0;
-			
-            // for each element in vertex, loop through all attributes to find the next potential candidate
-            for (Integer intg : vertex) {
-                for (int p=0;p<weightMatrix[intg].length;p++) {
-                    // cannot include existing element to form a cycle
-                    if (!vertex.contains(p)) {
-                        // update maxVal
-                        if (weightMatrix[intg][p]>maxVal) {
-                            edges= new int[] {intg,p};
-                            maxVal= weightMatrix[intg][p];
-                        }
-                    }  // end of check cycle if
-                }  // end of looping through all attributes
-            }  // end of looping through vertex
-			
-            // update parentAttribute and maximalTree, add new edge to vertex
-            parentAttribute[edges[1]]= edges[0];
-            maximalTree.put(edges, maxVal);
-            vertex.add(edges[1]);
+        MutualInfoTask(CountTable counts, Smoothing smoothing, int[] selected, double instanceSize,
+                       double[][][] logXi_Y, double[][] weightMatrix, int from, int to) {
+            this.counts= counts;
+            this.smoothing= smoothing;
+            this.selected= selected;
+            this.instanceSize= instanceSize;
+            this.logXi_Y= logXi_Y;
+            this.weightMatrix= weightMatrix;
+            this.from= from;
+            this.to= to;
         }
         
+        @Override
+        protected void compute() {
+            if (to-from>1) {
+                int mid= (from+to)>>>1;
+                invokeAll(new MutualInfoTask(counts, smoothing, selected, instanceSize, logXi_Y, weightMatrix, from, mid),
+                          new MutualInfoTask(counts, smoothing, selected, instanceSize, logXi_Y, weightMatrix, mid, to));
+                return;
+            }
+            for (int ai=from;ai<to;ai++) {
+                for (int aj=ai+1;aj<counts.arity.length;aj++) {
+                    double mutualInfoGain= mutualInfo(ai, aj);
+                    weightMatrix[ai][aj]= mutualInfoGain;
+                    weightMatrix[aj][ai]= mutualInfoGain;
+                }
+            }
+        }
+        
+        /** returns the conditional mutual information between attributes ai and aj **/
+        private double mutualInfo(int ai, int aj) {
+            double mutualInfoGain= 0.0;  // define mutual info gain 
+            int labelSize= counts.labelSize;
+            int avLenXi= counts.arity[ai];  // size of attribute X_i values 
+            int avLenXj= counts.arity[aj];  // size of attribute X_j values
+            double delta= smoothing.pair(selected==null ? ai : selected[ai], selected==null ? aj : selected[aj]);  // pseudo-count of the joint cells
+            double normXiXj= instanceSize+(avLenXi*avLenXj*labelSize)*delta;
+            // loop through all attribute values 
+            for (int aiVal=0;aiVal<avLenXi;aiVal++) { 
+                for (int ajVal=0;ajVal<avLenXj;ajVal++) {
+                    // loop through all class labels
+                    for (int l=0;l<labelSize;l++) {
+                        double numXiXjY= counts.count(l,ai,aiVal,aj,ajVal);
+
+                        // probability given Y (class label)
+                        double probXiXj= (numXiXjY+delta)/normXiXj;
+                        double probXiXj_Y= (numXiXjY+delta)/(counts.labelCount[l]+avLenXi*avLenXj*delta);
+
+                        mutualInfoGain+= probXiXj*(log2(probXiXj_Y)-logXi_Y[l][ai][aiVal]-logXi_Y[l][aj][ajVal]);
+                    }  // end of label loop	
+                }  // end of Xj value loop
+            }  // end of Xi value loop
+            return mutualInfoGain;
+        }
     }
-	
+    
+    
     /** create Condition Probability Table **/
-    private void createCPT() {
+    void createCPT() {
     
-        // for each label
-        for (int l=0; l<labelSize; l++) {
-    	
-            Map<String,Double> mapAttrXj= countXi.get(l);
- 	        Map<String,Double> mapAttrXiXj= countAttr_ij.get(l);
- 	    
-            // for each parent attribute
-            for (int e=0; e<parentAttribute.length; e++) {
-    	        
-            	String aj= attributes.get(e);
-                for (int ajVal=0; ajVal<attrVals.get(aj).size(); ajVal++) {
-                    // vertex 0 has no parent
-                    if (e==0) {
-                        String keyAttrXj= new StringBuilder(e+","+ajVal).toString();
-                        String keyProbTableXj= new StringBuilder(e+","+ajVal+",,").toString();
-                        //System.out.println(keyAttrXj+": "+mapAttrXj.get(keyAttrXj));
-                        double numXj= 0.0;
-                        if (mapAttrXj.containsKey(keyAttrXj)) { numXj= mapAttrXj.get(keyAttrXj); }
-                        double probXj_givenL= (numXj+DELTA)/(labelRec[l]+attrVals.get(aj).size()*DELTA);
-    	        	
-                        probTable.get(l).put(keyProbTableXj, probXj_givenL);
-    	            
-                        //System.out.println(keyProbTableXj+"= "+probTable.get(l).get(keyProbTableXj));
-    	            
+        probTable= new double[parentAttribute.length][];
+        // for each attribute
+        for (int e=0; e<parentAttribute.length; e++) {
+            
+            int par= parentAttribute[e];
+            int parSize= par<0 ? 1 : attrSize[par];
+            double delta= smoothing.attribute(attribute(e));
+            double[] table= new double[labelSize*parSize*attrSize[e]];
+            
+            // for each label
+            for (int l=0; l<labelSize; l++) {
+                for (int ajVal=0; ajVal<attrSize[e]; ajVal++) {
+                    // root attributes have no parent
+                    if (par<0) {
+                        double numXj= counts.count(l,e,ajVal);
+                        table[l*attrSize[e] + ajVal]= (numXj+delta)/(labelRec[l]+attrSize[e]*delta);
                     } else {
-    	            
-                        String ai= attributes.get(parentAttribute[e]);
-                        for (int aiVal=0; aiVal<attrVals.get(ai).size(); aiVal++) {
-                    
-                    	    String keyAttrXi= new StringBuilder(parentAttribute[e]+","+aiVal).toString();
-                            String keyAttrXiXj= new StringBuilder(e+","+ajVal+","+parentAttribute[e]+","+aiVal).toString();
-                            double numXi= 0.0, numXiXj= 0.0;
-                            if (mapAttrXj.containsKey(keyAttrXi)) { numXi= mapAttrXj.get(keyAttrXi); }
-                            if (mapAttrXiXj.containsKey(keyAttrXiXj)) { numXiXj= mapAttrXiXj.get(keyAttrXiXj); }
-                    
-                            double probXj_given_XiL= (numXiXj + DELTA) / (numXi + attrVals.get(aj).size()*DELTA);
-    	                
-                    	    probTable.get(l).put(keyAttrXiXj, probXj_given_XiL);
-    	            	
+                        for (int aiVal=0; aiVal<parSize; aiVal++) {
+                            double numXi= counts.count(l,par,aiVal);
+                            double numXiXj= counts.count(l,e,ajVal,par,aiVal);
+                            table[(l*parSize + aiVal)*attrSize[e] + ajVal]= (numXiXj + delta) / (numXi + attrSize[e]*delta);
                         }  // end of parent attribute values for loop
-    	        	
                     } // end of if else attribute
-    	    	
                 } // end of attribute values for loop
-            }  // end of looping thru each attribute
-        } // end of label for loop
+            } // end of label for loop
+            probTable[e]= table;
+        }  // end of looping thru each attribute
     }
 	
     
@@ -360,7 +579,7 @@ public class TAN {
     	// count all occurrence
     	for (int l=0;l<labelSize; l++) { allLabelCounts+= labelRec[l]; }
     	// record each probability
-    	for (int l=0;l<labelSize; l++) { res[l]= (labelRec[l]+DELTA)/(allLabelCounts+labelSize*DELTA); }
+    	for (int l=0;l<labelSize; l++) { res[l]= (labelRec[l]+smoothing.label())/(allLabelCounts+labelSize*smoothing.label()); }
     	return res;
     }
     
@@ -370,7 +589,9 @@ public class TAN {
      * @param d1
      * @return double: log(d1)/log(d2)
      */
-    private double log2(double d1) { return Math.log(d1)/Math.log(2); }
+    private static double log2(double d1) { return Math.log(d1)/LN2; }
+    
+    private static final double LN2= Math.log(2);
 	
 	
 }
@@ -0,0 +1,288 @@
+/**
+ * TrainedModel.java (with NaiveBayes.java and TAN.java)
+ *
+ */
+
+import java.util.List;
+
+
+/**
+ * The state of a trained NaiveBayes or TAN classifier that is needed for
+ * classification: the header of the training set, the label priors,
+ * the parent of each attribute and the conditional probability tables.
+ * Naive Bayes is the case where no attribute has a parent.
+ * Numeric attributes are either discretized with cut points, and then
+ * handled like nominal ones, or modelled by a Gaussian density for each label.
+ * A model is immutable once built and can be shared between threads.
+ */
+
+public class TrainedModel {
+
+    static final char NAIVE_BAYES= 'n', TAN= 't';
+
+    final char type;  // NAIVE_BAYES or TAN
+    final ArffDataSet header;  // relation, labels, attributes and their values
+    final double[] probLabel;  // P(Y=l)
+    final int[] parentAttribute;  // parent attribute of each attribute, -1 if only the class
+    final double[][] probTable;  // P(X_e | X_parent, Y) for each attribute e, 
+                                 // at (l*parentSize + parentVal)*attrSize[e] + attrVal,
+                                 // empty for attributes left out by feature selection
+    final double[][] cutPoints;  // cut points of each discretized numeric attribute, null for the other ones
+    final double[][] gaussian;  // mean (at 2*l) and variance (at 2*l+1) of each Gaussian numeric attribute, null for the other ones
+    final int[] attrSize;  // number of values of each attribute
+    private final Discretizer discretizer;  // bins the values of the discretized attributes
+    private final InferenceKernel kernel;  // log-space scoring of encoded instances
+    private final boolean hasGaussian;  // whether some attribute needs its numeric value
+
+    TrainedModel(char type, ArffDataSet header, double[] probLabel, int[] parentAttribute, double[][] probTable) {
+        this(type, header, probLabel, parentAttribute, probTable, null, null);
+    }
+
+    /**
+     * @param cutPoints cut points of each discretized attribute, may be null
+     * @param gaussian Gaussian parameters of each numeric attribute that is not discretized, may be null
+     */
+    TrainedModel(char type, ArffDataSet header, double[] probLabel, int[] parentAttribute, double[][] probTable,
+                 double[][] cutPoints, double[][] gaussian) {
+        int d= header.attributes.size();
+        this.type= type;
+        this.header= header;
+        this.probLabel= probLabel;
+        this.parentAttribute= parentAttribute;
+        this.probTable= probTable;
+        this.cutPoints= cutPoints==null ? new double[d][] : cutPoints;
+        this.gaussian= gaussian==null ? new double[d][] : gaussian;
+        this.attrSize= new int[d];
+        for (int a=0;a<d;a++) {
+            attrSize[a]= this.cutPoints[a]!=null ? this.cutPoints[a].length+1 : header.getArity(a);
+        }
+        boolean hasGaussian= false;
+        for (double[] params: this.gaussian) { hasGaussian|= params!=null; }
+        this.hasGaussian= hasGaussian;
+        this.discretizer= new Discretizer(this.cutPoints);
+        this.kernel= new InferenceKernel(this);
+        if (Metrics.ENABLED) { Metrics.get().recordModel(memoryBytes()); }
+    }
+
+    /**
+     * returns an estimate of the memory (bytes) held by the tables of the model
+     * and of its kernel, the header (names and values) left aside
+     */
+    public long memoryBytes() {
+        long bytes= InferenceKernel.arrayBytes(probLabel.length, 8) + InferenceKernel.arrayBytes(parentAttribute.length, 4)
+                    + InferenceKernel.arrayBytes(attrSize.length, 4);
+        for (double[][] tables: new double[][][] {probTable, cutPoints, gaussian}) {
+            bytes+= InferenceKernel.arrayBytes(tables.length, 8);
+            for (double[] table: tables) {
+                if (table!=null) { bytes+= InferenceKernel.arrayBytes(table.length, 8); }
+            }
+        }
+        return bytes + kernel.memoryBytes();
+    }
+
+    /** returns true if some numeric attribute is modelled by a Gaussian density */
+    public boolean hasGaussian() { return hasGaussian; }
+
+    /**
+     * classify an encoded instance
+     * @param row value position of each attribute, -1 for values that carry no evidence
+     * @param posterior receives P(Y=l | row) for each label
+     * @return position of the most likely label
+     * @throws IllegalStateException if the model has Gaussian attributes, which need their numeric values
+     */
+    public int predict(int[] row, double[] posterior) {
+        return predict(row, null, posterior);
+    }
+
+    /**
+     * classify an encoded instance with the values of its numeric attributes
+     * @param numeric value of each Gaussian numeric attribute (NaN if missing), null only without Gaussian attributes
+     * @see #predict(int[], double[])
+     */
+    public int predict(int[] row, double[] numeric, double[] posterior) {
+        if (numeric==null) { checkNominal(); }
+        if (!Metrics.ENABLED) { return kernel.predict(row, numeric, posterior); }
+        long start= System.nanoTime();
+        int label= kernel.predict(row, numeric, posterior);
+        recordLatency(start);
+        return label;
+    }
+
+    /**
+     * returns the most likely label of an encoded instance
+     * @param encodedRow value position of each attribute, -1 for values that carry no evidence
+     * @throws IllegalStateException if the model has Gaussian attributes, which need their numeric values
+     */
+    public int predict(int[] encodedRow) {
+        checkNominal();
+        if (!Metrics.ENABLED) { return kernel.predict(encodedRow); }
+        long start= System.nanoTime();
+        int label= kernel.predict(encodedRow);
+        recordLatency(start);
+        return label;
+    }
+
+    /**
+     * returns P(Y=l | encodedRow) for each label
+     * @param encodedRow value position of each attribute, -1 for values that carry no evidence
+     * @throws IllegalStateException if the model has Gaussian attributes, which need their numeric values
+     */
+    public double[] predictProba(int[] encodedRow) {
+        return predictProba(encodedRow, null);
+    }
+
+    /**
+     * returns P(Y=l | row, numeric) for each label
+     * @param row value position of each attribute, -1 for values that carry no evidence
+     * @param numeric value of each Gaussian numeric attribute (NaN if missing), null only without Gaussian attributes
+     */
+    public double[] predictProba(int[] row, double[] numeric) {
+        double[] posterior= new double[probLabel.length];
+        predict(row, numeric, posterior);
+        return posterior;
+    }
+
+    /** aux method for the forms without numeric values, which would silently drop the Gaussian evidence */
+    private void checkNominal() {
+        if (hasGaussian) {
+            throw new IllegalStateException("the model has Gaussian numeric attributes: pass their values with predict(row, numeric, posterior)");
+        }
+    }
+
+    /** aux method to record the latency of an instance scored since start (see Metrics) */
+    private static void recordLatency(long start) {
+        long nanos= System.nanoTime()-start;
+        Metrics.get().recordLatency(nanos);
+        Metrics.get().recordScoring(1, nanos);
+    }
+
+    /**
+     * encode the values of an instance, given in the order of the attributes
+     * @param values attribute values
+     * @param row receives the value position of each attribute, -1 if not declared
+     */
+    public void encode(String[] values, int[] row) {
+        encode(values, row, null);
+    }
+
+    /**
+     * encode the values of an instance, given in the order of the attributes
+     * @param row receives the value position (or bin) of each attribute, -1 if not declared
+     * @param numeric receives the value of each numeric attribute (NaN if missing), may be null
+     */
+    public void encode(String[] values, int[] row, double[] numeric) {
+        for (int a=0;a<attrSize.length;a++) {
+            if (cutPoints[a]!=null || gaussian[a]!=null) {
+                double x= a<values.length ? ArffDataSet.parseNumeric(values[a]) : Double.NaN;
+                row[a]= cutPoints[a]!=null ? discretizer.bin(a, x) : -1;
+                if (numeric!=null) { numeric[a]= x; }
+                continue;
+            }
+            row[a]= a<values.length ? header.dictionary(a).get(values[a]) : -1;
+        }
+    }
+
+    /**
+     * replace the value positions of the discretized attributes of row by their bins
+     * @param numeric value of each numeric attribute, as read by ArffReader.next(int[], double[])
+     */
+    public void discretize(int[] row, double[] numeric) {
+        discretizer.apply(row, numeric);
+    }
+
+    /** returns the log-space kernel used for classification */
+    public InferenceKernel kernel() { return kernel; }
+
+    /**
+     * classify the dataset in blocks of instances,
+     * print the predicted label, actual label and probability of each instance and the accuracy
+     * @param testset
+     */
+    public void classify(ArffDataSet testset) {
+        classify(testset, false);
+    }
+
+    /**
+     * classify the dataset, print the predicted label, actual label and probability of each instance and the accuracy
+     * @param testset
+     * @param aggregate classify each distinct row once and fan the result out to its instances
+     *                  (not with Gaussian attributes, whose values rarely repeat)
+     */
+    public void classify(ArffDataSet testset, boolean aggregate) {
+        int labelSize= probLabel.length, block= 1024;
+        int[][] cols= discretizer.apply(testset);
+        double[][] numCols= new double[attrSize.length][];
+        boolean numeric= false;
+        for (int a=0;a<attrSize.length;a++) {
+            if (gaussian[a]!=null) { numCols[a]= testset.getNumericColumn(a); numeric= true; }
+        }
+        int[] labelCol= testset.getLabelColumn();
+        
+        int correctNum= 0;
+        if (aggregate && !numeric) {
+            long start= System.nanoTime();
+            DistinctRows rows= DistinctRows.of(cols, null, testset.size());
+            int[] predictions= new int[rows.size];
+            double[] posteriors= new double[rows.size*labelSize];
+            kernel.predict(rows.cols, 0, rows.size, predictions, posteriors);
+            if (Metrics.ENABLED) { Metrics.get().recordScoring(testset.size(), System.nanoTime()-start); }
+            for (int inst=0;inst<testset.size();inst++) {
+                int row= rows.rowOf[inst];
+                if (report(testset, labelCol, inst, predictions[row], posteriors[row*labelSize + predictions[row]])) { correctNum++; }
+            }
+            System.out.println("\nAccuracy= "+correctNum+"/"+testset.size());
+            return;
+        }
+
+        int[] predictions= new int[block];
+        double[] posteriors= new double[block*labelSize];
+        for (int from=0;from<testset.size();from+=block) {
+            int to= Math.min(testset.size(), from+block);
+            long start= System.nanoTime();
+            kernel.predict(cols, numCols, from, to, predictions, posteriors);
+            if (Metrics.ENABLED) { Metrics.get().recordScoring(to-from, System.nanoTime()-start); }
+            for (int inst=from;inst<to;inst++) {
+                int label= predictions[inst-from];
+                if (report(testset, labelCol, inst, label, posteriors[(inst-from)*labelSize + label])) { correctNum++; }
+            }
+        }
+        System.out.println("\nAccuracy= "+correctNum+"/"+testset.size());
+    }
+
+    /** aux method to print the prediction of an instance, returns true if it is correct */
+    private boolean report(ArffDataSet testset, int[] labelCol, int inst, int label, double probability) {
+        int actual= labelCol[inst];
+        String actualLabel= actual<0 ? null : testset.labels.get(actual);
+        System.out.println(header.labels.get(label)+" "+actualLabel+" "+probability);
+        return label==actual;
+    }
+
+    /**
+     * classify a sparse dataset instance by instance in O(nnz),
+     * print the predicted label, actual label and probability of each instance and the accuracy
+     * @param testset
+     */
+    public void classify(SparseDataSet testset) {
+        int[] scratch= new int[attrSize.length];
+        double[] posterior= new double[probLabel.length];
+        int[] labelCol= testset.getLabelColumn();
+        
+        int correctNum= 0;
+        for (int inst=0;inst<testset.size();inst++) {
+            long start= System.nanoTime();
+            int label= kernel.predictSparse(testset.getRowStart(), testset.getAttrIndex(), testset.getValueIndex(), inst, scratch, posterior);
+            if (Metrics.ENABLED) { recordLatency(start); }
+            String actualLabel= labelCol[inst]<0 ? null : testset.header.labels.get(labelCol[inst]);
+            System.out.println(header.labels.get(label)+" "+actualLabel+" "+posterior[label]);
+            if (label==labelCol[inst]) { correctNum++; }
+        }
+        System.out.println("\nAccuracy= "+correctNum+"/"+testset.size());
+    }
+
+    /** returns the ordered list of class labels */
+    public List<String> labels() { return header.labels; }
+
+    /** returns the ordered list of attributes */
+    public List<String> attributes() { return header.attributes; }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * ValueDictionary.java (with ArffDataSet.java)
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+
+/**
+ * Maps the declared values of a nominal attribute (or the class labels)
+ * to their position, with open addressing and linear probing.
+ * Lookups take a slice [start, end) of a line, as chars or as bytes,
+ * so a field is encoded in O(1) without creating a substring.
+ * Hashes are String hashes (h= 31*h + c), so a slice of ASCII bytes
+ * hashes like the String it spells; slices with other bytes are decoded.
+ * A dictionary is immutable and can be shared between threads.
+ */
+
+public final class ValueDictionary {
+
+    private final char[][] keys;  // declared value of each position
+    private final int[] hashes;  // String hash of each declared value
+    private final int[] slots;  // position+1 of the value hashed to each slot, 0 if empty
+    private final int mask;  // number of slots - 1
+
+    /**
+     * @param values declared values, in order; a value declared twice keeps its first position
+     */
+    public ValueDictionary(List<String> values) {
+        int n= values.size();
+        keys= new char[n][];
+        hashes= new int[n];
+        int capacity= Integer.highestOneBit(Math.max(1, n)*2)*2;  // load factor at most 1/2
+        slots= new int[capacity];
+        mask= capacity-1;
+        for (int code=0;code<n;code++) {
+            String value= values.get(code);
+            if (get(value)>=0) { continue; }
+            keys[code]= value.toCharArray();
+            hashes[code]= value.hashCode();
+            int slot= mix(hashes[code]) & mask;
+            while (slots[slot]!=0) { slot= (slot+1) & mask; }
+            slots[slot]= code+1;
+        }
+    }
+
+    /** returns the position of a value, -1 if it is not declared */
+    public int get(String value) {
+        return get(value, 0, value.length());
+    }
+
+    /** returns the position of the value in chars [start, end) of s, -1 if it is not declared */
+    public int get(CharSequence s, int start, int end) {
+        int h= 0;
+        for (int k=start;k<end;k++) { h= 31*h + s.charAt(k); }
+        for (int slot= mix(h) & mask, code; (code= slots[slot])!=0; slot= (slot+1) & mask) {
+            char[] key= keys[code-1];
+            if (hashes[code-1]!=h || key.length!=end-start) { continue; }
+            int k= 0;
+            while (k<key.length && key[k]==s.charAt(start+k)) { k++; }
+            if (k==key.length) { return code-1; }
+        }
+        return -1;
+    }
+
+    /** returns the position of the UTF-8 value in bytes [start, end) of buf (absolute positions), -1 if it is not declared */
+    public int get(ByteBuffer buf, int start, int end) {
+        int h= 0;
+        for (int k=start;k<end;k++) {
+            byte b= buf.get(k);
+            if (b<0) { return get(decode(buf, start, end)); }
+            h= 31*h + b;
+        }
+        for (int slot= mix(h) & mask, code; (code= slots[slot])!=0; slot= (slot+1) & mask) {
+            char[] key= keys[code-1];
+            if (hashes[code-1]!=h || key.length!=end-start) { continue; }
+            int k= 0;
+            while (k<key.length && key[k]==buf.get(start+k)) { k++; }
+            if (k==key.length) { return code-1; }
+        }
+        return -1;
+    }
+
+    /** returns true if chars [start, end) of s are empty or the missing value '?' */
+    static boolean isMissing(CharSequence s, int start, int end) {
+        return start==end || (end-start==1 && s.charAt(start)=='?');
+    }
+
+    /** returns true if bytes [start, end) of buf are empty or the missing value '?' */
+    static boolean isMissing(ByteBuffer buf, int start, int end) {
+        return start==end || (end-start==1 && buf.get(start)=='?');
+    }
+
+    /** decodes UTF-8 bytes [start, end) of buf */
+    static String decode(ByteBuffer buf, int start, int end) {
+        byte[] bytes= new byte[end-start];
+        buf.get(start, bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** spreads the high bits of a String hash over the low ones, which select the slot */
+    private static int mix(int h) {
+        h*= 0x9E3779B9;
+        return h ^ (h>>>16);
+    }
+
+}
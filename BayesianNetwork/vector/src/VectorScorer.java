@@ -0,0 +1,106 @@
+/**
+ * VectorScorer.java (with InferenceKernel.java)
+ *
+ * Needs the incubating Vector API: compile and run with
+ * --add-modules jdk.incubator.vector (see ../pom.xml).
+ */
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Scores blocks of encoded columns for an InferenceKernel with SIMD lanes,
+ * one instance per lane. For each attribute, the position of the label
+ * entries of every instance is computed once (from its value and its
+ * parent's value, for TAN); each label then gathers the log-probabilities
+ * of a lane's worth of instances and adds them to the scores, which are
+ * laid out label by label: score of instance r for label l at l*padded + r.
+ * The argmax and the log-sum-exp normalization run across the lanes too.
+ * Missing values point to a block of zeros appended to the log table,
+ * so they add nothing without masking.
+ */
+
+final class VectorScorer implements InferenceKernel.BlockBackend {
+
+    private static final VectorSpecies<Double> SPECIES= DoubleVector.SPECIES_PREFERRED;
+
+    private final int labelSize;
+    private final int[] attrSize, parentAttribute, active, offset;
+    private final double[] logPrior;
+    private final double[] table;  // log table of the kernel followed by labelSize zeros
+    private final int zero;  // start of the zeros in table
+
+    VectorScorer(InferenceKernel kernel) {
+        labelSize= kernel.labelSize;
+        attrSize= kernel.attrSize;
+        parentAttribute= kernel.parentAttribute;
+        active= kernel.active;
+        offset= kernel.offset;
+        logPrior= kernel.logPrior;
+        zero= kernel.logTable.length;
+        table= new double[zero+labelSize];
+        System.arraycopy(kernel.logTable, 0, table, 0, zero);
+    }
+
+    public void predict(int[][] cols, int from, int to, int[] predictions, double[] posteriors) {
+        int lanes= SPECIES.length(), n= to-from;
+        int padded= (n+lanes-1)/lanes*lanes;
+        double[] scores= new double[labelSize*padded];
+        int[] index= new int[padded], labelIndex= new int[padded];
+        for (int r=n;r<padded;r++) { index[r]= zero; }
+        for (int l=0;l<labelSize;l++) {
+            for (int r=0;r<padded;r++) { scores[l*padded + r]= logPrior[l]; }
+        }
+
+        // gather and add, attribute by attribute
+        for (int e: active) {
+            int[] col= cols[e], parCol= parentAttribute[e]<0 ? null : cols[parentAttribute[e]];
+            int size= attrSize[e], off= offset[e];
+            for (int r=0;r<n;r++) {
+                int val= col[from+r], parVal= parCol==null ? 0 : parCol[from+r];
+                index[r]= val<0 || parVal<0 ? zero : off + (parVal*size + val)*labelSize;
+            }
+            for (int l=0;l<labelSize;l++) {
+                int out= l*padded;
+                for (int r=0;r<padded;r++) { labelIndex[r]= index[r]+l; }
+                for (int r=0;r<padded;r+=lanes) {
+                    DoubleVector terms= DoubleVector.fromArray(SPECIES, table, 0, labelIndex, r);
+                    DoubleVector.fromArray(SPECIES, scores, out+r).add(terms).intoArray(scores, out+r);
+                }
+            }
+        }
+
+        // argmax and log-sum-exp across the lanes
+        double[] best= new double[padded];
+        for (int r=0;r<padded;r+=lanes) {
+            DoubleVector max= DoubleVector.fromArray(SPECIES, scores, r);
+            DoubleVector arg= DoubleVector.zero(SPECIES);
+            for (int l=1;l<labelSize;l++) {
+                DoubleVector s= DoubleVector.fromArray(SPECIES, scores, l*padded + r);
+                VectorMask<Double> greater= s.compare(VectorOperators.GT, max);
+                max= max.blend(s, greater);
+                arg= arg.blend(l, greater);
+            }
+            arg.intoArray(best, r);
+            DoubleVector sum= DoubleVector.zero(SPECIES);
+            for (int l=0;l<labelSize;l++) {
+                DoubleVector p= DoubleVector.fromArray(SPECIES, scores, l*padded + r).sub(max).lanewise(VectorOperators.EXP);
+                p.intoArray(scores, l*padded + r);
+                sum= sum.add(p);
+            }
+            for (int l=0;l<labelSize;l++) {
+                DoubleVector.fromArray(SPECIES, scores, l*padded + r).div(sum).intoArray(scores, l*padded + r);
+            }
+        }
+
+        // back to one row of probabilities per instance
+        for (int r=0;r<n;r++) {
+            predictions[r]= (int) best[r];
+            for (int l=0;l<labelSize;l++) { posteriors[r*labelSize + l]= scores[l*padded + r]; }
+        }
+    }
+
+}